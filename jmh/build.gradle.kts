@@ -0,0 +1,76 @@
+/*
+ * JMH benchmarks of the lib project. Run them with
+ *
+ *   ./gradlew :jmh:jmh
+ *
+ * Results go to build/results/jmh/results.json. Throughput is in ops/s; the inputBytes counter is the MB/s (divide
+ * by 10^6) and inputBytes/compressedBytes the compression ratio. The gc profiler reports the allocations per op
+ * (gc.alloc.rate.norm).
+ *
+ * With only JDK 21 installed, add -PjavaVersion=21 (see lib/build.gradle.kts).
+ *
+ * ./gradlew :jmh:nativeParity compiles the reference libfsst of sanity/ with the system g++ and compares the Java port
+ * with it, byte for byte and in throughput (see NativeParity).
+ */
+
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    // the benchmarks are in package fsst, so they can call the package-private entry points of lib
+    jmh(project(":lib"))
+}
+
+val javaVersion = providers.gradleProperty("javaVersion").getOrElse("22").toInt()
+val previewArgs = if (javaVersion < 22) listOf("--enable-preview") else listOf()
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(javaVersion))
+    }
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.addAll(previewArgs)
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    jvmArgs.addAll(previewArgs)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
+
+// the generator loads the benchmark classes, which are preview class files on JDK 21
+tasks.named<me.champeau.jmh.JmhBytecodeGeneratorTask>("jmhRunBytecodeGenerator") {
+    jvmArgs.addAll(previewArgs)
+}
+
+// the reference implementation as a shared library, with the glue in src/native
+val libfsst = layout.buildDirectory.file("native/libfsst.so")
+
+val compileLibfsst by tasks.registering(Exec::class) {
+    val sanity = rootProject.file("sanity")
+    val shim = file("src/native/fsst_shim.cpp")
+    inputs.dir(sanity)
+    inputs.file(shim)
+    outputs.file(libfsst)
+    doFirst { libfsst.get().asFile.parentFile.mkdirs() }
+    commandLine("g++", "-O3", "-march=native", "-std=c++17", "-shared", "-fPIC", "-I$sanity",
+            "$sanity/libfsst.cpp", shim.path, "-o", libfsst.get().asFile.path)
+}
+
+tasks.register<JavaExec>("nativeParity") {
+    dependsOn(compileLibfsst)
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("fsst.NativeParity")
+    javaLauncher.set(javaToolchains.launcherFor(java.toolchain))
+    jvmArgs(listOf("--enable-native-access=ALL-UNNAMED") + previewArgs)
+    args(libfsst.get().asFile.path)
+}
@@ -0,0 +1,63 @@
+package fsst;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Training a table: buildSymbolTable on a prepared sample, single-threaded and in the common pool, and the whole
+ * FSSTEncoder construction (sampling, building and compacting the table).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildSymbolTableBenchmark {
+    @Param({ "urls", "emails", "names", "jsonkeys", "uuids" })
+    String corpus;
+
+    @Param({ "8", "32", "128", "1024" })
+    int length;
+
+    Corpora.Corpus strings;
+    byte[] sample;
+    int[] sampleLine, sampleLen;
+    int nSample;
+
+    @Setup
+    public void setup() {
+        strings = Corpora.generate(corpus, length, 1 << 20);
+        sample = new byte[(int) Symbol.FSST_SAMPLEMAXSZ];
+        sampleLine = new int[(int) (strings.n + Symbol.FSST_SAMPLEMAXSZ / Symbol.FSST_SAMPLELINE)];
+        sampleLen = new int[sampleLine.length];
+        nSample = FSSTEncoder.makeSample(sample, sampleLine, sampleLen, strings.data, strings.offsets, strings.n);
+    }
+
+    @Benchmark
+    public SymbolTable buildSymbolTable() {
+        return SymbolTable.buildSymbolTable(new Counters(), sample, sampleLine, sampleLen, nSample, 0);
+    }
+
+    @Benchmark
+    public SymbolTable buildSymbolTableParallel() {
+        return SymbolTable.buildSymbolTable(ForkJoinPool.commonPool(), sample, sampleLine, sampleLen, nSample, 0, 0);
+    }
+
+    @Benchmark
+    public FSSTEncoder train() {
+        return new FSSTEncoder(strings.n, strings.data, strings.offsets, 0);
+    }
+}
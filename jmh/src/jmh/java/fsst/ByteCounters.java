@@ -0,0 +1,24 @@
+package fsst;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bytes processed, reported by JMH as rates next to the ops/s: inputBytes/s is the throughput in uncompressed bytes
+ * (MB/s after dividing by 10^6), inputBytes/compressedBytes is the compression ratio.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class ByteCounters {
+    public long inputBytes;
+    public long compressedBytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        inputBytes = 0;
+        compressedBytes = 0;
+    }
+}
@@ -0,0 +1,66 @@
+package fsst;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compressBulk over a 1MB corpus, per variant: the scalar kernel as such, with noSuffixOpt, with avoidBranch,
+ * "auto", the variant fsst_compress chooses for the table, and "buckets", the same table on the
+ * bucketed longest match of MatchEngine.BUCKETS instead of the hash table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressBenchmark {
+    @Param({ "urls", "emails", "names", "jsonkeys", "uuids" })
+    String corpus;
+
+    @Param({ "8", "32", "128", "1024" })
+    int length;
+
+    @Param({ "default", "noSuffixOpt", "avoidBranch", "auto", "buckets" })
+    String variant;
+
+    Corpora.Corpus strings;
+    FSSTEncoder encoder;
+    boolean noSuffixOpt, avoidBranch, auto;
+    byte[] out;
+    int[] outOffsets;
+
+    @Setup
+    public void setup() {
+        strings = Corpora.generate(corpus, length, 1 << 20);
+        encoder = new FSSTEncoder(strings.n, strings.data, strings.offsets, 0);
+        noSuffixOpt = variant.equals("noSuffixOpt");
+        avoidBranch = variant.equals("avoidBranch");
+        auto = variant.equals("auto") || variant.equals("buckets");
+        if (variant.equals("buckets"))
+            encoder = encoder.withEngine(MatchEngine.BUCKETS);
+        out = new byte[7 + 2 * strings.bytes()];
+        outOffsets = new int[strings.n + 1];
+    }
+
+    @Benchmark
+    public int compressBulk(ByteCounters counters) {
+        int n = auto ? encoder.fsst_compress(strings.n, strings.data, strings.offsets, out, outOffsets)
+                : FSSTEncoder.compressBulk(encoder.table, strings.n, strings.data, strings.offsets, out, outOffsets,
+                        noSuffixOpt, avoidBranch);
+        counters.inputBytes += strings.bytes();
+        counters.compressedBytes += outOffsets[n] - outOffsets[0];
+        return n;
+    }
+}
@@ -0,0 +1,92 @@
+package fsst;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * Generated corpora in the style of the dbtext set of the FSST paper: URLs, emails, names, JSON keys and UUIDs.
+ * Every string of a corpus has the same length: items of the kind are joined until it is reached, and the last one
+ * is cut. The same kind, length and size always give the same corpus.
+ */
+final class Corpora {
+    static final String[] WORDS = { "data", "index", "search", "product", "user", "account", "order", "news",
+            "video", "music", "sport", "travel", "health", "world", "today", "shop", "cloud", "blog", "media", "home" };
+    static final String[] TLDS = { "com", "org", "net", "de", "nl", "io", "co.uk" };
+    static final String[] FIRST = { "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda",
+            "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah" };
+    static final String[] LAST = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+            "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor" };
+    static final String[] DOMAINS = { "gmail", "yahoo", "hotmail", "outlook", "example", "company", "university" };
+    static final String[] KEYS = { "id", "name", "type", "created_at", "updated_at", "user_id", "status", "value",
+            "description", "metadata", "tags", "count", "price", "currency", "address", "timestamp", "enabled" };
+
+    /** Strings back to back: string i is data[offsets[i], offsets[i+1]). */
+    static final class Corpus {
+        final byte[] data;
+        final int[] offsets;
+        final int n;
+
+        Corpus(byte[] data, int[] offsets, int n) {
+            this.data = data;
+            this.offsets = offsets;
+            this.n = n;
+        }
+
+        int bytes() {
+            return offsets[n] - offsets[0];
+        }
+    }
+
+    private Corpora() {
+    }
+
+    /** A corpus of about size bytes of strings of the given kind and length. */
+    static Corpus generate(String kind, int length, int size) {
+        SplittableRandom random = new SplittableRandom(kind.hashCode() * 31L + length);
+        int n = Math.max(1, size / length);
+        StringBuilder all = new StringBuilder(n * length);
+        StringBuilder string = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            string.setLength(0);
+            while (string.length() < length) {
+                if (string.length() > 0)
+                    string.append(kind.equals("names") || kind.equals("jsonkeys") ? ' ' : ',');
+                item(kind, random, string);
+            }
+            all.append(string, 0, length);
+        }
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            offsets[i + 1] = offsets[i] + length;
+        return new Corpus(all.toString().getBytes(StandardCharsets.US_ASCII), offsets, n);
+    }
+
+    static void item(String kind, SplittableRandom random, StringBuilder out) {
+        switch (kind) {
+            case "urls" -> {
+                out.append(random.nextInt(4) == 0 ? "http://" : "https://www.").append(pick(WORDS, random))
+                        .append(pick(WORDS, random)).append('.').append(pick(TLDS, random));
+                for (int k = random.nextInt(4); k > 0; k--)
+                    out.append('/').append(pick(WORDS, random));
+                if (random.nextBoolean())
+                    out.append("?id=").append(random.nextInt(1000000));
+            }
+            case "emails" -> out.append(pick(FIRST, random).toLowerCase()).append('.')
+                    .append(pick(LAST, random).toLowerCase()).append(random.nextInt(100)).append('@')
+                    .append(pick(DOMAINS, random)).append('.').append(pick(TLDS, random));
+            case "names" -> out.append(pick(FIRST, random)).append(' ').append(pick(LAST, random));
+            case "jsonkeys" -> out.append('"').append(pick(KEYS, random)).append("\":");
+            case "uuids" -> {
+                String hex = Long.toHexString(random.nextLong() | Long.MIN_VALUE)
+                        + Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+                out.append(hex, 0, 8).append('-').append(hex, 8, 12).append('-').append(hex, 12, 16).append('-')
+                        .append(hex, 16, 20).append('-').append(hex, 20, 32);
+            }
+            default -> throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static String pick(String[] words, SplittableRandom random) {
+        return words[random.nextInt(words.length)];
+    }
+}
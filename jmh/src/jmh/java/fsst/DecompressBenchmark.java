@@ -0,0 +1,73 @@
+package fsst;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Decoding a compressed 1MB corpus: as a batch (decompressAll) and one string at a time (decompress). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecompressBenchmark {
+    @Param({ "urls", "emails", "names", "jsonkeys", "uuids" })
+    String corpus;
+
+    @Param({ "8", "32", "128", "1024" })
+    int length;
+
+    Corpora.Corpus strings;
+    FSSTDecoder decoder;
+    byte[] compressed;
+    int[] compressedOffsets;
+    byte[] out;
+    int[] outOffsets;
+
+    @Setup
+    public void setup() {
+        strings = Corpora.generate(corpus, length, 1 << 20);
+        FSSTEncoder encoder = new FSSTEncoder(strings.n, strings.data, strings.offsets, 0);
+        compressed = new byte[7 + 2 * strings.bytes()];
+        compressedOffsets = new int[strings.n + 1];
+        if (encoder.fsst_compress(strings.n, strings.data, strings.offsets, compressed, compressedOffsets) != strings.n)
+            throw new IllegalStateException("corpus does not fit");
+        decoder = encoder.decoder();
+        out = new byte[strings.bytes() + 32];
+        outOffsets = new int[strings.n + 1];
+    }
+
+    @Benchmark
+    public int decompressAll(ByteCounters counters) {
+        int n = decoder.decompressAll(strings.n, compressedOffsets, compressed, out, outOffsets);
+        counters.inputBytes += strings.bytes();
+        counters.compressedBytes += compressedOffsets[strings.n];
+        return n;
+    }
+
+    // the per-string loop a caller would write for decompressAll, output offsets included
+    @Benchmark
+    public int decompress(ByteCounters counters) {
+        int pos = 0;
+        for (int i = 0; i < strings.n; i++) {
+            int start = compressedOffsets[i];
+            outOffsets[i] = pos;
+            pos += decoder.decompress(compressed, start, compressedOffsets[i + 1] - start, out, pos);
+        }
+        outOffsets[strings.n] = pos;
+        counters.inputBytes += strings.bytes();
+        counters.compressedBytes += compressedOffsets[strings.n];
+        return pos;
+    }
+}
@@ -0,0 +1,183 @@
+package fsst;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+
+/**
+ * Compares the Java port with the reference libfsst (sanity/, built into a shared library by the compileLibfsst task
+ * of this project) on the corpora of the benchmarks. Per corpus it checks that
+ * <ul>
+ * <li>fsst_create and the FSSTEncoder trained on the same strings export the same table,</li>
+ * <li>fsst_compress and FSSTEncoder.fsst_compress with that table produce the same codes for every string,</li>
+ * <li>fsst_decompress and FSSTDecoder.decompressAll decode them to the original strings,</li>
+ * </ul>
+ * and reports the throughput of both sides and the ratio Java/native. Run it with
+ * {@code ./gradlew :jmh:nativeParity}; it exits with status 1 on any divergence.
+ */
+public class NativeParity {
+    static final String[] CORPORA = { "urls", "emails", "names", "jsonkeys", "uuids" };
+    static final int[] LENGTHS = { 8, 32, 128, 1024 };
+    static final int SIZE = 1 << 20;
+    static final long DECODER_SIZE = 8 + 1 + 255 + 7 + 255 * 8; // sizeof(fsst_decoder_t)
+
+    final MethodHandle create, compress, export, destroy, decoder, decompress;
+
+    NativeParity(Path library, Arena arena) {
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup lookup = SymbolLookup.libraryLookup(library, arena);
+        create = linker.downcallHandle(lookup.find("fsst_create").orElseThrow(),
+                FunctionDescriptor.of(ADDRESS, JAVA_LONG, ADDRESS, ADDRESS, JAVA_INT));
+        compress = linker.downcallHandle(lookup.find("fsst_compress").orElseThrow(),
+                FunctionDescriptor.of(JAVA_LONG, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS,
+                        ADDRESS));
+        export = linker.downcallHandle(lookup.find("fsst_export").orElseThrow(),
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS));
+        destroy = linker.downcallHandle(lookup.find("fsst_destroy").orElseThrow(),
+                FunctionDescriptor.ofVoid(ADDRESS));
+        decoder = linker.downcallHandle(lookup.find("fsst_shim_decoder").orElseThrow(),
+                FunctionDescriptor.ofVoid(ADDRESS, ADDRESS));
+        decompress = linker.downcallHandle(lookup.find("fsst_shim_decompress").orElseThrow(),
+                FunctionDescriptor.of(JAVA_LONG, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS, JAVA_LONG, ADDRESS, ADDRESS));
+    }
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length != 1) {
+            System.err.println("usage: NativeParity <path of libfsst.so>");
+            System.exit(2);
+        }
+        boolean identical = true;
+        try (Arena arena = Arena.ofShared()) {
+            NativeParity parity = new NativeParity(Path.of(args[0]), arena);
+            System.out.printf("%-9s %5s  %-9s %-9s %-9s  %21s  %21s%n", "corpus", "len", "table", "codes", "decoded",
+                    "compress MB/s n/j/j:n", "decompress MB/s n/j/j:n");
+            for (String corpus : CORPORA)
+                for (int length : LENGTHS)
+                    identical &= parity.compare(corpus, length);
+        }
+        System.exit(identical ? 0 : 1);
+    }
+
+    boolean compare(String corpus, int length) throws Throwable {
+        Corpora.Corpus strings = Corpora.generate(corpus, length, SIZE);
+        int n = strings.n, bytes = strings.bytes();
+        try (Arena arena = Arena.ofConfined()) {
+            // the strings as the C API takes them
+            MemorySegment data = arena.allocate(bytes + 8);
+            MemorySegment.copy(strings.data, 0, data, JAVA_BYTE, 0, bytes);
+            MemorySegment lenIn = array(arena, JAVA_LONG, n), strIn = array(arena, ADDRESS, n);
+            for (int i = 0; i < n; i++) {
+                lenIn.setAtIndex(JAVA_LONG, i, strings.offsets[i + 1] - strings.offsets[i]);
+                strIn.setAtIndex(ADDRESS, i, data.asSlice(strings.offsets[i]));
+            }
+
+            // training: the exported tables
+            MemorySegment encoder = (MemorySegment) create.invokeExact((long) n, lenIn, strIn, 0);
+            MemorySegment nativeTable = arena.allocate(FSSTEncoder.FSST_MAXHEADER);
+            int nativeTableSize = (int) export.invokeExact(encoder, nativeTable);
+            byte[] javaTable = new byte[FSSTEncoder.FSST_MAXHEADER];
+            int javaTableSize = new FSSTEncoder(n, strings.data, strings.offsets, 0).export(javaTable, 0);
+            long tableMismatch = MemorySegment.mismatch(nativeTable, 0, nativeTableSize,
+                    MemorySegment.ofArray(javaTable), 0, javaTableSize);
+
+            // compression with the native table on both sides
+            FSSTDecoder javaDecoder = new FSSTDecoder();
+            javaDecoder.import_from_buffer(nativeTable, 0);
+            FSSTEncoder javaEncoder = new FSSTEncoder(new CompactSymbolTable(javaDecoder));
+            long outSize = 7 + 2L * bytes;
+            MemorySegment nativeOut = arena.allocate(outSize);
+            MemorySegment lenOut = array(arena, JAVA_LONG, n), strOut = array(arena, ADDRESS, n);
+            byte[] javaOut = new byte[(int) outSize];
+            int[] javaOffsets = new int[n + 1];
+            double nativeCompress = time(() -> {
+                long done = (long) compress.invokeExact(encoder, (long) n, lenIn, strIn, outSize, nativeOut, lenOut,
+                        strOut);
+                check(done == n);
+            }, bytes);
+            double javaCompress = time(() -> check(javaEncoder.fsst_compress(n, strings.data, strings.offsets,
+                    javaOut, javaOffsets) == n), bytes);
+            int codeMismatch = -1, codeMismatches = 0;
+            for (int i = 0; i < n; i++) {
+                long start = strOut.getAtIndex(ADDRESS, i).address() - nativeOut.address();
+                long len = lenOut.getAtIndex(JAVA_LONG, i);
+                if (len != javaOffsets[i + 1] - javaOffsets[i] || MemorySegment.mismatch(nativeOut, start,
+                        start + len, MemorySegment.ofArray(javaOut), javaOffsets[i], javaOffsets[i + 1]) >= 0) {
+                    codeMismatches++;
+                    if (codeMismatch < 0)
+                        codeMismatch = i;
+                }
+            }
+
+            // decompression of the native codes on both sides
+            MemorySegment nativeDecoder = arena.allocate(DECODER_SIZE, 8);
+            decoder.invokeExact(encoder, nativeDecoder);
+            MemorySegment nativeDecoded = arena.allocate(bytes + 32);
+            MemorySegment decodedLen = array(arena, JAVA_LONG, n);
+            int[] nativeOffsets = new int[n + 1];
+            for (int i = 0; i < n; i++)
+                nativeOffsets[i + 1] = nativeOffsets[i] + (int) lenOut.getAtIndex(JAVA_LONG, i);
+            byte[] nativeCodes = nativeOut.asSlice(0, nativeOffsets[n]).toArray(JAVA_BYTE);
+            byte[] javaDecoded = new byte[bytes + 32];
+            int[] javaDecodedOffsets = new int[n + 1];
+            double nativeDecompress = time(() -> {
+                long done = (long) decompress.invokeExact(nativeDecoder, (long) n, lenOut, strOut,
+                        (long) bytes + 32, nativeDecoded, decodedLen);
+                check(done == bytes);
+            }, bytes);
+            double javaDecompress = time(() -> check(javaDecoder.decompressAll(n, nativeOffsets, nativeCodes,
+                    javaDecoded, javaDecodedOffsets) == n), bytes);
+            boolean decoded = javaDecodedOffsets[n] == bytes
+                    && Arrays.equals(javaDecoded, 0, bytes, strings.data, 0, bytes)
+                    && MemorySegment.mismatch(nativeDecoded, 0, bytes, data, 0, bytes) < 0;
+
+            destroy.invokeExact(encoder);
+            System.out.printf("%-9s %5d  %-9s %-9s %-9s  %6.0f %6.0f %5.2fx  %6.0f %6.0f %5.2fx%n", corpus, length,
+                    tableMismatch < 0 ? "same" : "byte " + tableMismatch,
+                    codeMismatch < 0 ? "same" : codeMismatches + " diff",
+                    decoded ? "same" : "DIFFERENT", nativeCompress, javaCompress, javaCompress / nativeCompress,
+                    nativeDecompress, javaDecompress, javaDecompress / nativeDecompress);
+            if (codeMismatch >= 0)
+                System.out.printf("    first differing string: %d%n", codeMismatch);
+            return tableMismatch < 0 && codeMismatch < 0 && decoded;
+        }
+    }
+
+    // n elements of the layout, uninitialized. Arena.allocate(layout, n) means n elements from JDK 22 on, but one
+    // element of value n on JDK 21, so the size is spelled out.
+    static MemorySegment array(Arena arena, ValueLayout layout, int n) {
+        return arena.allocate(layout.byteSize() * n, layout.byteAlignment());
+    }
+
+    interface Run {
+        void run() throws Throwable;
+    }
+
+    // MB/s of the best of the timed runs, after a warm-up of about a second
+    static double time(Run run, int bytes) throws Throwable {
+        for (long end = System.nanoTime() + 1_000_000_000L; System.nanoTime() < end; )
+            run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return bytes * 1e3 / best;
+    }
+
+    static void check(boolean condition) {
+        if (!condition)
+            throw new IllegalStateException("output does not fit");
+    }
+}
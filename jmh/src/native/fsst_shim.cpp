@@ -0,0 +1,27 @@
+// Glue to call the reference libfsst (sanity/) through the Foreign Function & Memory API.
+#include "libfsst.hpp"
+
+// the AVX512 kernel is not part of the sanity sources: the native side always compresses with the scalar kernel
+bool fsst_hasAVX512() { return false; }
+size_t fsst_compressAVX512(SymbolTable&, u8*, u8*, SIMDjob*, SIMDjob*, size_t, size_t) { return 0; }
+
+extern "C" {
+
+// fsst_decoder() returns the decoder by value, copy it to memory of the caller instead
+void fsst_shim_decoder(fsst_encoder_t *encoder, fsst_decoder_t *decoder) {
+   *decoder = fsst_decoder(encoder);
+}
+
+// fsst_decompress() is inline in fsst.h: decompress a batch of strings back to back into out[0,size), returns the
+// number of decompressed bytes (more than size if the output is truncated)
+size_t fsst_shim_decompress(fsst_decoder_t *decoder, size_t n, size_t lenIn[], unsigned char *strIn[], size_t size,
+                            unsigned char *out, size_t lenOut[]) {
+   size_t pos = 0;
+   for (size_t i = 0; i < n; i++) {
+      lenOut[i] = fsst_decompress(decoder, lenIn[i], strIn[i], pos < size ? size - pos : 0, out + pos);
+      pos += lenOut[i];
+   }
+   return pos;
+}
+
+}
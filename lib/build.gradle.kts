@@ -29,13 +29,23 @@ dependencies {
 }
 
 // Apply a specific Java toolchain to ease working on different environments.
+// 22 is the first release with the final java.lang.foreign (MemorySegment) API. On a machine with only JDK 21,
+// build with -PjavaVersion=21: java.lang.foreign is then a preview API and everything runs with --enable-preview.
+val javaVersion = providers.gradleProperty("javaVersion").getOrElse("22").toInt()
+val previewArgs = if (javaVersion < 22) listOf("--enable-preview") else listOf()
+
 java {
     toolchain {
-        languageVersion.set(JavaLanguageVersion.of(20))
+        languageVersion.set(JavaLanguageVersion.of(javaVersion))
     }
 }
 
+tasks.withType<JavaCompile>().configureEach {
+    options.compilerArgs.addAll(previewArgs)
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
+    jvmArgs(previewArgs)
 }
@@ -0,0 +1,110 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * The greedy longest match of {@link MatchEngine#BUCKETS}: the symbols of a table sorted by their first byte, and
+ * within a bucket by descending length, in flat arrays. The first symbol of the bucket of the next byte that
+ * matches the next bytes of the input is the longest one; a byte without a match is escaped.
+ */
+final class BucketMap {
+    final char[] bucketStart = new char[257]; // symbols of first byte b are [bucketStart[b], bucketStart[b+1])
+    final long[] symbols; // symbol bytes, little endian
+    final long[] masks; // the low length bytes
+    final byte[] lengths;
+    final byte[] codes;
+
+    BucketMap(CompactSymbolTable table) {
+        int n = table.nSymbols;
+        symbols = new long[n];
+        masks = new long[n];
+        lengths = new byte[n];
+        codes = new byte[n];
+
+        // counting sort on the first byte
+        for (int code = 0; code < n; code++)
+            bucketStart[(int) (table.symbolValues[code] & 0xFF) + 1]++;
+        for (int b = 0; b < 256; b++)
+            bucketStart[b + 1] += bucketStart[b];
+        int[] next = new int[256];
+        for (int b = 0; b < 256; b++)
+            next[b] = bucketStart[b];
+        for (int code = 0; code < n; code++) {
+            long symbol = table.symbolValues[code];
+            int len = table.symbolLens[code];
+            int i = next[(int) (symbol & 0xFF)]++;
+            // insertion sort on descending length, codes of the same length stay in order
+            for (; i > bucketStart[(int) (symbol & 0xFF)] && lengths[i - 1] < len; i--) {
+                symbols[i] = symbols[i - 1];
+                masks[i] = masks[i - 1];
+                lengths[i] = lengths[i - 1];
+                codes[i] = codes[i - 1];
+            }
+            symbols[i] = symbol;
+            masks[i] = -1L >>> (64 - 8 * len);
+            lengths[i] = (byte) len;
+            codes[i] = (byte) code;
+        }
+    }
+
+    // compress the chunk in[cur,end) to out[outPos..), which has room for 2*(end-cur)+7 bytes; returns the new
+    // output position. The table terminator is patched in after the chunk, like the hash engine does: no symbol
+    // contains it, so no symbol matches past the end.
+    int compress(byte[] in, int cur, int end, byte[] out, int outPos, int terminator) {
+        final char[] bucketStart = this.bucketStart;
+        final long[] symbols = this.symbols;
+        final long[] masks = this.masks;
+        final byte[] lengths = this.lengths;
+
+        while (cur < end) {
+            long word = end - cur >= 8 ? Utils.fsst_unaligned_load(in, cur)
+                    : Utils.fsst_terminated_load(in, cur, end, terminator);
+            int first = (int) word & 0xFF;
+            int i = bucketStart[first], last = bucketStart[first + 1];
+            while (i < last && (word & masks[i]) != symbols[i])
+                i++;
+            if (i < last) {
+                out[outPos++] = codes[i];
+                cur += lengths[i];
+            } else {
+                out[outPos++] = (byte) FSSTDecoder.FSST_ESC;
+                out[outPos++] = (byte) first;
+                cur++;
+            }
+        }
+        return outPos;
+    }
+
+    long compress(MemorySegment in, long cur, long end, MemorySegment out, long outPos, int terminator) {
+        final char[] bucketStart = this.bucketStart;
+        final long[] symbols = this.symbols;
+        final long[] masks = this.masks;
+        final byte[] lengths = this.lengths;
+
+        while (cur < end) {
+            long word = end - cur >= 8 ? Utils.fsst_unaligned_load(in, cur)
+                    : Utils.fsst_terminated_load(in, cur, end, terminator);
+            int first = (int) word & 0xFF;
+            int i = bucketStart[first], last = bucketStart[first + 1];
+            while (i < last && (word & masks[i]) != symbols[i])
+                i++;
+            if (i < last) {
+                out.set(ValueLayout.JAVA_BYTE, outPos++, codes[i]);
+                cur += lengths[i];
+            } else {
+                out.set(ValueLayout.JAVA_BYTE, outPos++, (byte) FSSTDecoder.FSST_ESC);
+                out.set(ValueLayout.JAVA_BYTE, outPos++, (byte) first);
+                cur++;
+            }
+        }
+        return outPos;
+    }
+
+    /** Approximate heap size in bytes. */
+    long footprintBytes() {
+        final int header = 16;
+        return header + 5 * 4 + header + 2L * bucketStart.length
+                + 2 * (header + 8L * symbols.length) + 2 * (header + (long) lengths.length);
+    }
+}
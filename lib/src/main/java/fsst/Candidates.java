@@ -0,0 +1,114 @@
+package fsst;
+
+// The candidate symbols of a makeTable() round, with their gain (the unordered_set<QSymbol> and priority_queue of the
+// C++ code). Candidates are kept in an open-addressing hash table on (symbol value, length), in primitive arrays; the
+// used slots double as a binary heap on gain to take the best candidates out.
+//
+// The arrays are kept from round to round and only grow when a round has more candidates than any before, so
+// training does not allocate per candidate.
+class Candidates {
+    long[] values;
+    byte[] lens; // 0 marks a free slot
+    long[] gains;
+    int mask;
+
+    int[] used; // slots in use: in insertion order while adding, a max-heap on gain while taking out
+    int size, heapSize;
+
+    Candidates() {
+        allocate(1 << 12);
+    }
+
+    private void allocate(int capacity) {
+        values = new long[capacity];
+        lens = new byte[capacity];
+        gains = new long[capacity];
+        used = new int[capacity / 2 + 1];
+        mask = capacity - 1;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++)
+            lens[used[i]] = 0;
+        size = heapSize = 0;
+    }
+
+    private int slot(long value, int len) {
+        long h = (value ^ ((long) len << 58)) * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h >>> 32) & mask;
+        while (lens[slot] != 0 && (values[slot] != value || lens[slot] != len))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    void addOrInc(long value, int len, long gain) {
+        int slot = slot(value, len);
+        if (lens[slot] != 0) {
+            gains[slot] += gain;
+            return;
+        }
+        values[slot] = value;
+        lens[slot] = (byte) len;
+        gains[slot] = gain;
+        used[size++] = slot;
+        if (2 * size > mask)
+            grow();
+    }
+
+    private void grow() {
+        long[] oldValues = values, oldGains = gains;
+        byte[] oldLens = lens;
+        int[] oldUsed = used;
+        allocate(2 * (mask + 1));
+        for (int i = 0; i < size; i++) {
+            int old = oldUsed[i], slot = slot(oldValues[old], oldLens[old]);
+            values[slot] = oldValues[old];
+            lens[slot] = oldLens[old];
+            gains[slot] = oldGains[old];
+            used[i] = slot;
+        }
+    }
+
+    // higher gain first; on equal gain the smallest (unsigned) value, like cmpGn in the C++ code
+    private boolean better(int a, int b) {
+        if (gains[a] != gains[b])
+            return gains[a] > gains[b];
+        int cmp = Long.compareUnsigned(values[a], values[b]);
+        return cmp != 0 ? cmp < 0 : lens[a] < lens[b];
+    }
+
+    /** Start taking out the candidates, best first. */
+    void heapify() {
+        heapSize = size;
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDown(i, used[i]);
+    }
+
+    boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /** Take out the best candidate, returns its slot. */
+    int poll() {
+        int top = used[0], last = used[--heapSize];
+        used[heapSize] = top; // keep it in used[], for clear()
+        if (heapSize > 0)
+            siftDown(0, last);
+        return top;
+    }
+
+    private void siftDown(int i, int slot) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && better(used[child + 1], used[child]))
+                child++;
+            if (!better(used[child], slot))
+                break;
+            used[i] = used[child];
+            i = child;
+        }
+        used[i] = slot;
+    }
+}
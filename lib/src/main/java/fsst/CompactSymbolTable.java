@@ -0,0 +1,148 @@
+package fsst;
+
+import java.util.Arrays;
+
+/**
+ * A finalized symbol table in the compact layout that compression reads. Everything is in primitive arrays, so a
+ * hash probe is two array loads instead of a chase through Symbol objects, and a table takes about 140KB (see
+ * {@link #footprintBytes()}) instead of the 300KB+ of the SymbolTable it was made from.
+ *
+ * Created with {@link SymbolTable#compact()}, from an imported table, or from a list of symbols. The symbols and
+ * lookup arrays are never changed after construction. Two fields are: {@link #variant}, the compression variant
+ * chosen on first use, which is volatile and which any thread may set, as every choice compresses the same; and the
+ * counters of {@link #metrics} (only with -Dfsst.metrics=true), LongAdders that the encoders add to concurrently and
+ * volatile training figures set once when the table is made. So a table can be shared by any number of encoders and
+ * threads. A table compresses with the hash engine, or through {@link #buckets} when it was made for
+ * {@link MatchEngine#BUCKETS}.
+ */
+public final class CompactSymbolTable {
+    // a free hash table slot has exactly this icl (all real symbols have a code < 256 after finalize)
+    static final int FSST_ICL_FREE = (int) QSymbol.FSST_ICL_FREE;
+
+    final char[] shortCodes = new char[65536]; // code | len << FSST_LEN_BITS of the next two bytes, as in SymbolTable
+    final long[] hashValues = new long[1 << Symbol.FSST_HASH_LOG2SIZE]; // symbols of 3+ bytes, on the next 3 bytes
+    final int[] hashIcl = new int[1 << Symbol.FSST_HASH_LOG2SIZE]; // len << 28 | code << 16 | ignoredBits
+    final long[] symbolValues = new long[256]; // symbol of each code
+    final byte[] symbolLens = new byte[256];
+    final int[] lenHisto = new int[Symbol.maxLength];
+
+    final int nSymbols;
+    final int suffixLim;
+    final int byteLim; // codes from here on are single-byte symbols
+    final int terminator;
+    final boolean zeroTerminated;
+    // the longest match of MatchEngine.BUCKETS, null for the hash engine
+    final BucketMap buckets;
+    // the compression variant of the table, chosen on first use (see FSSTEncoder.variant()). Set after construction;
+    // every choice compresses the same, so it is fine if several threads choose at once.
+    volatile CompressionVariant.Choice variant;
+    // counters of the work done with the table, null unless -Dfsst.metrics=true
+    final FSSTMetrics metrics = FSSTMetrics.ENABLED ? new FSSTMetrics() : null;
+
+    CompactSymbolTable(SymbolTable st) {
+        for (int i = 0; i < shortCodes.length; i++)
+            shortCodes[i] = (char) st.shortCodes[i];
+        for (int i = 0; i < hashValues.length; i++) {
+            hashValues[i] = st.hashTab[i].value;
+            hashIcl[i] = (int) st.hashTab[i].icl;
+        }
+        for (int code = 0; code < st.nSymbols; code++) {
+            symbolValues[code] = st.symbols[code].value;
+            symbolLens[code] = (byte) st.symbols[code].length();
+        }
+        System.arraycopy(st.lenHisto, 0, lenHisto, 0, lenHisto.length);
+        nSymbols = st.nSymbols;
+        suffixLim = st.suffixLim;
+        byteLim = (st.nSymbols + (st.zeroTerminated ? 1 : 0) - st.lenHisto[0]) & 0xFF;
+        terminator = st.terminator;
+        zeroTerminated = st.zeroTerminated;
+        buckets = null;
+        if (metrics != null)
+            metrics.trained(st.trainingNanos, st.trainingRounds);
+    }
+
+    /**
+     * Reconstruct the table of an encoder from a decoder that imported its export. The version word carries the
+     * suffixLim, terminator and nSymbols of the exported table, so the result is the same as the compact() of the
+     * table that was exported (the export is little endian, like this layout).
+     */
+    CompactSymbolTable(FSSTDecoder decoder) {
+        this((int) (decoder.version >>> 8) & 0xFF, decoder.symbol, lengths(decoder.len),
+                (int) (decoder.version >>> 16) & 0xFF, (int) (decoder.version >>> 24) & 0xFF,
+                decoder.zeroTerminated != 0, MatchEngine.HASH);
+    }
+
+    /**
+     * A table of the given symbols, symbol i has code i. The codes must be in the order of finalize(): the symbols
+     * of 2 to 8 bytes by length, then the single bytes (code 0 is the 0 byte of a zero terminated table). In the
+     * hash table a later symbol of 3+ bytes takes the slot of an earlier one, the bucket engine keeps them all.
+     */
+    CompactSymbolTable(int nSymbols, long[] symbols, byte[] lengths, int terminator, int suffixLim,
+            boolean zeroTerminated, MatchEngine engine) {
+        this.nSymbols = nSymbols;
+        this.terminator = terminator;
+        this.suffixLim = suffixLim;
+        this.zeroTerminated = zeroTerminated;
+        for (int code = 0; code < nSymbols; code++) {
+            symbolValues[code] = symbols[code];
+            symbolLens[code] = lengths[code];
+            lenHisto[lengths[code] - 1]++;
+        }
+        byteLim = (nSymbols + (zeroTerminated ? 1 : 0) - lenHisto[0]) & 0xFF;
+
+        // single-byte codes in all slots of shortCodes[] (escapes where there is no symbol), see finalize()
+        char[] byteCodes = new char[256];
+        Arrays.fill(byteCodes, (char) (511 + (1 << Symbol.FSST_LEN_BITS)));
+        Arrays.fill(hashIcl, FSST_ICL_FREE);
+        for (int code = 0; code < nSymbols; code++) {
+            int len = symbolLens[code];
+            long value = symbolValues[code];
+            if (len == 1) {
+                byteCodes[(int) value] = (char) (code + (1 << Symbol.FSST_LEN_BITS));
+            } else if (len > 2) {
+                int idx = (int) (Symbol.FSST_HASH(value & 0xFFFFFF) & (hashIcl.length - 1));
+                hashValues[idx] = value;
+                hashIcl[idx] = (len << 28) | (code << 16) | ((8 - len) * 8);
+            }
+        }
+        for (int i = 0; i < shortCodes.length; i++)
+            shortCodes[i] = byteCodes[i & 0xFF];
+        for (int code = 0; code < nSymbols; code++)
+            if (symbolLens[code] == 2)
+                shortCodes[(int) symbolValues[code]] = (char) (code + (2 << Symbol.FSST_LEN_BITS));
+        buckets = engine == MatchEngine.BUCKETS ? new BucketMap(this) : null;
+    }
+
+    /** The same table, compressing with the given engine. */
+    CompactSymbolTable withEngine(MatchEngine engine) {
+        CompactSymbolTable table = new CompactSymbolTable(nSymbols, symbolValues, symbolLens, terminator, suffixLim,
+                zeroTerminated, engine);
+        if (metrics != null)
+            table.metrics.trained(metrics.trainingNanos, metrics.trainingRounds);
+        return table;
+    }
+
+    MatchEngine engine() {
+        return buckets != null ? MatchEngine.BUCKETS : MatchEngine.HASH;
+    }
+
+    private static byte[] lengths(char[] len) {
+        byte[] lengths = new byte[len.length];
+        for (int i = 0; i < len.length; i++)
+            lengths[i] = (byte) len[i];
+        return lengths;
+    }
+
+    /** Approximate heap size of this table in bytes (object and array headers included). */
+    public long footprintBytes() {
+        final int header = 16;
+        return 2 * header + 7 * 4 // this object: header, array references, scalar fields
+                + header + 2L * shortCodes.length
+                + header + 8L * hashValues.length
+                + header + 4L * hashIcl.length
+                + header + 8L * symbolValues.length
+                + header + symbolLens.length
+                + header + 4L * lenHisto.length
+                + (buckets != null ? buckets.footprintBytes() : 0);
+    }
+}
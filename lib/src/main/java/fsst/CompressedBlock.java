@@ -0,0 +1,211 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * A self-describing block of compressed strings with random access, e.g. a page of a string column. A single value
+ * is fetched by decoding only its own codes.
+ *
+ * Layout (little endian):
+ * <pre>
+ * exported symbol table          see {@link FSSTEncoder#export}
+ * u32 n                          number of strings
+ * u8  width                      bits per packed offset
+ * u32 heapSize
+ * u32 bases[n/64 + 1]            offset of string 64*g in the heap
+ * packed[n+1]                    offset of string i minus bases[i/64], width bits each, plus 8 bytes of padding
+ * heap[heapSize]                 the compressed strings, back to back
+ * </pre>
+ * Compressed strings are about 10 to 30 bytes, so the packed offsets take a few bits each instead of 32. Blocks are
+ * read from a MemorySegment (a mapped page, or a byte[]); the table is looked up in {@link SymbolTableRegistry#GLOBAL},
+ * so blocks with the same table share one decoder.
+ */
+public final class CompressedBlock {
+    static final int GROUP = 64; // strings per base offset
+
+    final MemorySegment block;
+    final FSSTDecoder decoder;
+    final int n;
+    final int width;
+    final long mask;
+    final long basesPos, packedPos, heapPos, heapSize;
+
+    /** Open the block at the start of block. */
+    public CompressedBlock(MemorySegment block) {
+        int tableSize = SymbolTableRegistry.exportedSize(block, 0);
+        SymbolTableRegistry.Entry entry = tableSize < 0 ? null : SymbolTableRegistry.GLOBAL.get(block, 0);
+        if (entry == null)
+            throw new IllegalArgumentException("not a compressed block of this FSST version");
+        this.block = block;
+        this.decoder = entry.decoder();
+        this.n = block.get(Utils.JAVA_INT_LE, tableSize);
+        this.width = block.get(ValueLayout.JAVA_BYTE, tableSize + 4);
+        this.mask = (1L << width) - 1;
+        this.heapSize = block.get(Utils.JAVA_INT_LE, tableSize + 5) & 0xFFFFFFFFL;
+        this.basesPos = tableSize + 9;
+        this.packedPos = basesPos + 4L * (n / GROUP + 1);
+        this.heapPos = packedPos + packedSize(n, width);
+        if (n < 0 || width < 0 || width > 32 || heapPos + heapSize > block.byteSize())
+            throw new IllegalArgumentException("corrupt compressed block");
+    }
+
+    public CompressedBlock(byte[] block) {
+        this(MemorySegment.ofArray(block));
+    }
+
+    // bytes of n+1 packed offsets, with padding for 8-byte loads
+    static long packedSize(int n, int width) {
+        return ((n + 1L) * width + 7) / 8 + 8;
+    }
+
+    /**
+     * Compress strings into a block: string i is {@code in[inOffsets[i], inOffsets[i+1])}.
+     *
+     * @throws IllegalArgumentException if the compressed strings take 4GB or more
+     * @throws IllegalStateException if the encoder does not compress all n strings into the worst-case heap
+     */
+    public static byte[] encode(FSSTEncoder encoder, int n, byte[] in, int[] inOffsets) {
+        byte[] heap = new byte[7 + 2 * (inOffsets[n] - inOffsets[0])];
+        int[] offsets = new int[n + 1];
+        if (encoder.fsst_compress(n, in, inOffsets, heap, offsets) != n) // never a block of the first strings only
+            throw new IllegalStateException("compressed strings do not fit the heap");
+
+        int width = 0;
+        for (int i = 0; i <= n; i++)
+            width = Math.max(width, 64 - Long.numberOfLeadingZeros(offsets[i] - offsets[i - i % GROUP]));
+        byte[] table = new byte[FSSTEncoder.FSST_MAXHEADER];
+        int tableSize = encoder.export(table, 0);
+        long basesPos = tableSize + 9, packedPos = basesPos + 4L * (n / GROUP + 1);
+        long heapPos = packedPos + packedSize(n, width);
+        if (heapPos + offsets[n] > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("block too large");
+
+        byte[] block = new byte[(int) heapPos + offsets[n]];
+        MemorySegment out = MemorySegment.ofArray(block);
+        System.arraycopy(table, 0, block, 0, tableSize);
+        out.set(Utils.JAVA_INT_LE, tableSize, n);
+        out.set(ValueLayout.JAVA_BYTE, tableSize + 4, (byte) width);
+        out.set(Utils.JAVA_INT_LE, tableSize + 5, offsets[n]);
+        for (int g = 0; g <= n / GROUP; g++)
+            out.set(Utils.JAVA_INT_LE, basesPos + 4L * g, offsets[g * GROUP]);
+        for (int i = 0; i <= n; i++) { // or the bits into place, the padding keeps the 8-byte loads in the array
+            long bit = (long) i * width, pos = packedPos + (bit >>> 3);
+            long rel = offsets[i] - offsets[i - i % GROUP];
+            out.set(Utils.JAVA_LONG_LE, pos, out.get(Utils.JAVA_LONG_LE, pos) | rel << (bit & 7));
+        }
+        System.arraycopy(heap, 0, block, (int) heapPos, offsets[n]);
+        return block;
+    }
+
+    /** Number of strings in the block. */
+    public int size() {
+        return n;
+    }
+
+    public FSSTDecoder decoder() {
+        return decoder;
+    }
+
+    // offset of compressed string i in the heap, 0 <= i <= n
+    long offset(int i) {
+        long base = block.get(Utils.JAVA_INT_LE, basesPos + 4L * (i / GROUP)) & 0xFFFFFFFFL;
+        long bit = (long) i * width;
+        return base + ((block.get(Utils.JAVA_LONG_LE, packedPos + (bit >>> 3)) >>> (bit & 7)) & mask);
+    }
+
+    /** Byte-length of compressed string i. */
+    public long compressedLength(int i) {
+        return offset(i + 1) - offset(i);
+    }
+
+    /**
+     * Decode string i to out[outOff..]; see {@link FSSTDecoder#decompress(MemorySegment, long, long, MemorySegment,
+     * long)} for the slack the output needs.
+     *
+     * @return byte-size of the string. If it exceeds the room in out, the output is truncated.
+     */
+    public long get(int i, MemorySegment out, long outOff) {
+        long start = offset(i);
+        return decoder.decompress(block, heapPos + start, offset(i + 1) - start, out, outOff);
+    }
+
+    /** Like {@link #get(int, MemorySegment, long)}, into out[outOff..]. */
+    public int get(int i, byte[] out, int outOff) {
+        return (int) get(i, MemorySegment.ofArray(out), outOff);
+    }
+
+    /** String i. */
+    public byte[] get(int i) {
+        byte[] out = new byte[(int) (32 + 8 * compressedLength(i))];
+        return Arrays.copyOf(out, get(i, out, 0));
+    }
+
+    /**
+     * Decode strings [from, to): string i is decoded to {@code out[outOffsets[i-from], outOffsets[i-from+1])},
+     * starting at outOffsets[0].
+     *
+     * @return the number of strings (<= to-from) that fit the output
+     */
+    public int decodeRange(int from, int to, byte[] out, int[] outOffsets) {
+        MemorySegment outSegment = MemorySegment.ofArray(out);
+        long start = offset(from), outPos = outOffsets[0];
+        for (int i = from; i < to; i++) {
+            long end = offset(i + 1);
+            long decoded = decoder.decompress(block, heapPos + start, end - start, outSegment, outPos);
+            if (decoded > out.length - outPos)
+                return i - from; // truncated, does not fit
+            outOffsets[i - from + 1] = (int) (outPos += decoded);
+            start = end;
+        }
+        return to - from;
+    }
+
+    /** A cursor over the strings of the block, positioned before the first string. */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /** Iterates over (a range of) the strings, decoding one at a time into a buffer that it reuses. */
+    public final class Cursor {
+        int index = -1;
+        byte[] value = new byte[256];
+        MemorySegment valueSegment = MemorySegment.ofArray(value);
+        int length;
+
+        /** Move to the next string and decode it, false if there is none. */
+        public boolean next() {
+            if (index + 1 >= n) {
+                index = n;
+                return false;
+            }
+            long start = offset(++index), len = offset(index + 1) - start;
+            if (value.length < 32 + 8 * len) {
+                value = new byte[(int) Math.max(32 + 8 * len, 2L * value.length)];
+                valueSegment = MemorySegment.ofArray(value);
+            }
+            length = (int) decoder.decompress(block, heapPos + start, len, valueSegment, 0);
+            return true;
+        }
+
+        /** Position the cursor before string i, so that next() decodes it. */
+        public void seek(int i) {
+            index = i - 1;
+        }
+
+        /** Index of the current string. */
+        public int index() {
+            return index;
+        }
+
+        /** The buffer that holds the current string in [0, length()); only valid until the next call to next(). */
+        public byte[] value() {
+            return value;
+        }
+
+        public int length() {
+            return length;
+        }
+    }
+}
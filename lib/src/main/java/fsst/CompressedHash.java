@@ -0,0 +1,65 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * 64-bit hashes of compressed strings. Compression with a fixed table is deterministic, so equal strings have equal
+ * codes and the hash of the codes can stand in for the hash of the string; it reads the 2-3x fewer compressed bytes.
+ * Hashes of strings compressed with different tables are unrelated.
+ *
+ * The hash reads 8 bytes at a time (the last, partial word with one masked load where the input has room) and mixes
+ * each word in like MurmurHash3, followed by its finalizer.
+ */
+public final class CompressedHash {
+    static final long C1 = 0x87C37B91114253D5L, C2 = 0x4CF5AD432745937FL;
+
+    private CompressedHash() {
+    }
+
+    /** Hash of in[off, off+len). */
+    public static long hash(byte[] in, int off, int len) {
+        long h = len;
+        int i = off, end = off + len;
+        for (; i + 8 <= end; i += 8)
+            h = mix(h, Utils.fsst_unaligned_load(in, i));
+        if (i < end)
+            h = mix(h, Utils.fsst_terminated_load(in, i, end, 0));
+        return fmix(h);
+    }
+
+    /** Hash of in[off, off+len). Equal to the hash of the same bytes in a byte[]. */
+    public static long hash(MemorySegment in, long off, long len) {
+        long h = len;
+        long i = off, end = off + len;
+        for (; i + 8 <= end; i += 8)
+            h = mix(h, Utils.fsst_unaligned_load(in, i));
+        if (i < end)
+            h = mix(h, Utils.fsst_terminated_load(in, i, end, 0));
+        return fmix(h);
+    }
+
+    /** Hash a batch of strings: hashes[i] gets the hash of {@code in[inOffsets[i], inOffsets[i+1])}. */
+    public static void hash(int n, byte[] in, int[] inOffsets, long[] hashes) {
+        for (int i = 0; i < n; i++)
+            hashes[i] = hash(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]);
+    }
+
+    /** Like {@link #hash(int, byte[], int[], long[])}, for strings in a segment. */
+    public static void hash(int n, MemorySegment in, long[] inOffsets, long[] hashes) {
+        for (int i = 0; i < n; i++)
+            hashes[i] = hash(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]);
+    }
+
+    private static long mix(long h, long word) {
+        return Long.rotateLeft(h ^ (word * C1), 31) * C2;
+    }
+
+    // finalization of MurmurHash3
+    static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,158 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * A hash table of distinct compressed strings, for group-by, distinct and joins on a compressed column. Keys are
+ * hashed ({@link CompressedHash}), compared and stored in compressed form; they are only decoded when the result is
+ * emitted. All keys must be compressed with the same table, that of the decoder.
+ *
+ * Every distinct key gets an id: the ids are dense, in order of insertion, and can index the aggregates of a group.
+ * The keys are stored back to back in one arena; the table is open addressing with linear probing over the ids, and
+ * keeps the hash of every key, so that a probe only compares the bytes of keys with the same hash and growing does
+ * not hash again.
+ */
+public final class CompressedKeyTable {
+    final FSSTDecoder decoder;
+    byte[] keys = new byte[1024]; // compressed keys, key i is keys[keyOffsets[i], keyOffsets[i+1])
+    int[] keyOffsets = new int[65];
+    long[] keyHashes = new long[64];
+    int size;
+    int[] slots = new int[128]; // 1 + id of the key in the slot, 0 if free
+    long[] batchHashes = new long[0];
+
+    public CompressedKeyTable(FSSTDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /** Number of distinct keys. */
+    public int size() {
+        return size;
+    }
+
+    /** The id of the compressed key in[off, off+len), which is added if it is new. */
+    public int add(byte[] in, int off, int len) {
+        return add(in, off, len, CompressedHash.hash(in, off, len));
+    }
+
+    /** Like {@link #add(byte[], int, int)}, with the hash of the key already computed. */
+    public int add(byte[] in, int off, int len, long hash) {
+        ensureRoom();
+        int mask = slots.length - 1;
+        for (int idx = (int) hash & mask; true; idx = (idx + 1) & mask) {
+            int id = slots[idx] - 1;
+            if (id < 0) {
+                slots[idx] = append(len, hash) + 1;
+                System.arraycopy(in, off, keys, keyOffsets[size - 1], len);
+                return size - 1;
+            }
+            if (keyHashes[id] == hash
+                    && Arrays.equals(keys, keyOffsets[id], keyOffsets[id + 1], in, off, off + len))
+                return id;
+        }
+    }
+
+    /** The id of the compressed key in[off, off+len), which is added if it is new. */
+    public int add(MemorySegment in, long off, long len) {
+        long hash = CompressedHash.hash(in, off, len);
+        ensureRoom();
+        int mask = slots.length - 1;
+        for (int idx = (int) hash & mask; true; idx = (idx + 1) & mask) {
+            int id = slots[idx] - 1;
+            if (id < 0) {
+                slots[idx] = append((int) len, hash) + 1;
+                MemorySegment.copy(in, off, MemorySegment.ofArray(keys), keyOffsets[size - 1], len);
+                return size - 1;
+            }
+            if (keyHashes[id] == hash && keyOffsets[id + 1] - keyOffsets[id] == len
+                    && MemorySegment.mismatch(in, off, off + len, MemorySegment.ofArray(keys), keyOffsets[id],
+                            keyOffsets[id + 1]) < 0)
+                return id;
+        }
+    }
+
+    // keep the load factor at most 1/2, also after adding a key
+    private void ensureRoom() {
+        if (2 * (size + 1) > slots.length)
+            rehash(2 * slots.length);
+    }
+
+    // make room for a new key of len bytes, returns its id
+    private int append(int len, long hash) {
+        if (size == keyHashes.length) {
+            keyHashes = Arrays.copyOf(keyHashes, 2 * size);
+            keyOffsets = Arrays.copyOf(keyOffsets, 2 * size + 1);
+        }
+        int end = keyOffsets[size] + len;
+        if (end > keys.length)
+            keys = Arrays.copyOf(keys, Math.max(end, 2 * keys.length));
+        keyHashes[size] = hash;
+        keyOffsets[size + 1] = end;
+        return size++;
+    }
+
+    private void rehash(int capacity) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int idx = (int) keyHashes[id] & mask;
+            while (slots[idx] != 0)
+                idx = (idx + 1) & mask;
+            slots[idx] = id + 1;
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Add a batch of compressed keys: key i is {@code in[inOffsets[i], inOffsets[i+1])} and ids[i] gets its id.
+     * The keys are all hashed before the first probe.
+     */
+    public void add(int n, byte[] in, int[] inOffsets, int[] ids) {
+        if (batchHashes.length < n)
+            batchHashes = new long[n];
+        CompressedHash.hash(n, in, inOffsets, batchHashes);
+        for (int i = 0; i < n; i++)
+            ids[i] = add(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i], batchHashes[i]);
+    }
+
+    /** Like {@link #add(int, byte[], int[], int[])}, for keys in a segment. */
+    public void add(int n, MemorySegment in, long[] inOffsets, int[] ids) {
+        for (int i = 0; i < n; i++)
+            ids[i] = add(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]);
+    }
+
+    /** The id of the compressed key in[off, off+len), or -1 if it is not in the table (e.g. to probe a join). */
+    public int find(byte[] in, int off, int len) {
+        long hash = CompressedHash.hash(in, off, len);
+        int mask = slots.length - 1;
+        for (int idx = (int) hash & mask; true; idx = (idx + 1) & mask) {
+            int id = slots[idx] - 1;
+            if (id < 0 || keyHashes[id] == hash
+                    && Arrays.equals(keys, keyOffsets[id], keyOffsets[id + 1], in, off, off + len))
+                return id;
+        }
+    }
+
+    /** The compressed key of id. */
+    public byte[] compressedKey(int id) {
+        return Arrays.copyOfRange(keys, keyOffsets[id], keyOffsets[id + 1]);
+    }
+
+    /** The decoded key of id. */
+    public byte[] key(int id) {
+        byte[] out = new byte[32 + 8 * (keyOffsets[id + 1] - keyOffsets[id])];
+        int len = decoder.decompress(keys, keyOffsets[id], keyOffsets[id + 1] - keyOffsets[id], out, 0);
+        return Arrays.copyOf(out, len);
+    }
+
+    /**
+     * Decode all keys in order of their ids: key i is decoded to {@code out[outOffsets[i], outOffsets[i+1])},
+     * starting at outOffsets[0].
+     *
+     * @return the number of keys (<=size()) that fit the output.
+     */
+    public int decodeKeys(byte[] out, int[] outOffsets) {
+        return decoder.decompressAll(size, keyOffsets, keys, out, outOffsets);
+    }
+}
@@ -0,0 +1,157 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+/**
+ * A string predicate that is evaluated on compressed strings, without decompressing them. The constant is compressed
+ * once with the table of the strings; compression is deterministic, so a string equals the constant iff its codes
+ * equal the codes of the constant.
+ *
+ * For a prefix that does not hold: the codes of a string that starts with the prefix may differ from those of the
+ * prefix near its end, where the string continues and a longer symbol matches. startsWith therefore compares codes
+ * up to the first mismatch, steps back to the last code boundary before it, and only decodes the string from there
+ * on, for the bytes of the prefix that are left.
+ */
+public final class CompressedPredicate {
+    final boolean prefix;
+    final byte[] constant;
+    final byte[] codes; // compressed constant
+    final MemorySegment codeSegment;
+    final int[] boundary; // boundary[i]: start of the code that codes[i] belongs to (the escape of an escaped byte)
+    final int[] decodedBefore; // decodedBefore[i]: byte-length of the decoded codes[0, i), at code boundaries
+    final char[] len;
+    final long[] symbol;
+
+    private CompressedPredicate(FSSTEncoder encoder, byte[] constant, boolean prefix) {
+        this.prefix = prefix;
+        this.constant = constant.clone();
+        int[] outOffsets = new int[2];
+        byte[] out = new byte[7 + 2 * constant.length];
+        encoder.fsst_compress(1, constant, new int[] { 0, constant.length }, out, outOffsets);
+        this.codes = Arrays.copyOf(out, outOffsets[1]);
+        this.codeSegment = MemorySegment.ofArray(codes);
+
+        FSSTDecoder decoder = encoder.decoder();
+        this.len = decoder.len;
+        this.symbol = decoder.symbol;
+        this.boundary = new int[codes.length + 1];
+        this.decodedBefore = new int[codes.length + 1];
+        int decoded = 0;
+        for (int i = 0; i < codes.length; ) {
+            boundary[i] = i;
+            decodedBefore[i] = decoded;
+            if ((codes[i] & 0xFF) == FSSTDecoder.FSST_ESC) {
+                boundary[i + 1] = i;
+                i += 2;
+                decoded++;
+            } else {
+                decoded += len[codes[i++] & 0xFF];
+            }
+        }
+        boundary[codes.length] = codes.length;
+        decodedBefore[codes.length] = decoded;
+    }
+
+    /** Strings equal to constant, for strings compressed by encoder (or any encoder with the same table). */
+    public static CompressedPredicate equalTo(FSSTEncoder encoder, byte[] constant) {
+        return new CompressedPredicate(encoder, constant, false);
+    }
+
+    /** Strings that start with prefix, for strings compressed by encoder (or any encoder with the same table). */
+    public static CompressedPredicate startsWith(FSSTEncoder encoder, byte[] prefix) {
+        return new CompressedPredicate(encoder, prefix, true);
+    }
+
+    /** Evaluate the predicate on the compressed string in[off, off+lenIn). */
+    public boolean test(byte[] in, int off, int lenIn) {
+        if (!prefix)
+            return Arrays.equals(in, off, off + lenIn, codes, 0, codes.length);
+        int n = Math.min(lenIn, codes.length);
+        int mismatch = Arrays.mismatch(in, off, off + n, codes, 0, n);
+        if (mismatch < 0) {
+            if (n == codes.length)
+                return true;
+            mismatch = n; // the string has fewer codes
+        }
+        int matched = decodedBefore[boundary[mismatch]];
+        for (int pos = off + boundary[mismatch], end = off + lenIn; matched < constant.length; ) {
+            if (pos >= end)
+                return false;
+            int code = in[pos++] & 0xFF;
+            if (code == FSSTDecoder.FSST_ESC) {
+                if (pos >= end || in[pos++] != constant[matched++])
+                    return false;
+            } else if ((matched = matchSymbol(code, matched)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Evaluate the predicate on the compressed string in[off, off+lenIn). */
+    public boolean test(MemorySegment in, long off, long lenIn) {
+        if (!prefix)
+            return lenIn == codes.length && MemorySegment.mismatch(in, off, off + lenIn, codeSegment, 0,
+                    codes.length) < 0;
+        int n = (int) Math.min(lenIn, codes.length);
+        int mismatch = (int) MemorySegment.mismatch(in, off, off + n, codeSegment, 0, n);
+        if (mismatch < 0) {
+            if (n == codes.length)
+                return true;
+            mismatch = n;
+        }
+        int matched = decodedBefore[boundary[mismatch]];
+        for (long pos = off + boundary[mismatch], end = off + lenIn; matched < constant.length; ) {
+            if (pos >= end)
+                return false;
+            int code = in.get(ValueLayout.JAVA_BYTE, pos++) & 0xFF;
+            if (code == FSSTDecoder.FSST_ESC) {
+                if (pos >= end || in.get(ValueLayout.JAVA_BYTE, pos++) != constant[matched++])
+                    return false;
+            } else if ((matched = matchSymbol(code, matched)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // compare the bytes of the symbol of code to constant[matched..], the new matched count or -1
+    private int matchSymbol(int code, int matched) {
+        long word = symbol[code];
+        int end = Math.min(matched + len[code], constant.length);
+        for (; matched < end; matched++, word >>>= 8)
+            if ((byte) word != constant[matched])
+                return -1;
+        return matched;
+    }
+
+    /**
+     * Evaluate the predicate on a batch of compressed strings; string i is {@code in[inOffsets[i], inOffsets[i+1])}.
+     *
+     * @param selection receives the indices of the matching strings
+     * @return the number of matching strings
+     */
+    public int select(int n, byte[] in, int[] inOffsets, int[] selection) {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            if (test(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]))
+                selection[count++] = i;
+        return count;
+    }
+
+    /** Like {@link #select(int, byte[], int[], int[])}, for strings in a segment. */
+    public int select(int n, MemorySegment in, long[] inOffsets, int[] selection) {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            if (test(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]))
+                selection[count++] = i;
+        return count;
+    }
+
+    /** The compressed constant. */
+    public byte[] codes() {
+        return codes.clone();
+    }
+}
@@ -0,0 +1,53 @@
+package fsst;
+
+/**
+ * The variants of the scalar compression kernel (see FSSTEncoder.compressVariant). They produce the same codes and
+ * only differ in how they branch, so which one is fastest depends on the symbol lengths of the table, and on the
+ * CPU and JIT.
+ */
+public enum CompressionVariant {
+    DEFAULT(false, false),
+    /** No lookup of longer symbols after a 2-byte code whose symbol is no prefix of any other symbol. */
+    NO_SUFFIX_OPT(true, false),
+    /** Branch-free selection between a 1-2 byte code and a hash table hit. */
+    AVOID_BRANCH(false, true);
+
+    final boolean noSuffixOpt, avoidBranch;
+
+    CompressionVariant(boolean noSuffixOpt, boolean avoidBranch) {
+        this.noSuffixOpt = noSuffixOpt;
+        this.avoidBranch = avoidBranch;
+    }
+
+    /** The variant chosen for a table, and the reason. */
+    public static final class Choice {
+        final CompressionVariant variant;
+        final String reason;
+        final boolean probed;
+
+        Choice(CompressionVariant variant, String reason, boolean probed) {
+            this.variant = variant;
+            this.reason = reason;
+            this.probed = probed;
+        }
+
+        public CompressionVariant variant() {
+            return variant;
+        }
+
+        /** How the variant was chosen: the lenHisto heuristic, or the timings of a probe. */
+        public String reason() {
+            return reason;
+        }
+
+        /** Whether the variant was timed on strings of the table, instead of guessed from its symbol lengths. */
+        public boolean probed() {
+            return probed;
+        }
+
+        @Override
+        public String toString() {
+            return variant + " (" + reason + ")";
+        }
+    }
+}
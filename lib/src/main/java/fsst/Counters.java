@@ -1,104 +1,190 @@
 package fsst;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// we keep two counters count1[pos] and count2[pos1][pos2] of resp 16 and 12-bits. Both are split into two columns for
+// performance reasons:
+// first reason is to make the column we update the most during symbolTable construction (the low bits) thinner, thus
+// reducing CPU cache pressure.
+// second reason is that when scanning the array, after seeing a 64-bits 0 in the high bits column, we can quickly skip
+// over many codes (15 or 7)
+//
+// The 2-dimensional arrays of the C++ code are flat here: count2[pos1][pos2] is at pos1*FSST_CODE_MAX+pos2.
 public class Counters {
     static final int FSST_CODE_BITS = 9;
     static final int FSST_CODE_MAX = (int) ((long) 1 << FSST_CODE_BITS);
-    // NOTE: There is a NNONOPT_FSST ifdef in the c++ code, that we need to account
-    // for somehow
-    int[] count1 = new int[FSST_CODE_MAX];
-    int[][] count2 = new int[FSST_CODE_MAX][FSST_CODE_MAX]; // array to count subsequent combinations of two symbols in
-                                                            // the sample
-    // high arrays come before low arrays, because our GetNext() methods may overrun
-    // their 64-bits reads a few bytes
-    int[] count1High = new int[FSST_CODE_MAX]; // array to count frequency of symbols as they occur in the sample
-                                               // (16-bits)
-    int[] count1Low = new int[FSST_CODE_MAX]; // it is split in a low and high byte: cnt = count1High*256 + count1Low
-    int[][] count2High = new int[FSST_CODE_MAX][FSST_CODE_MAX / 2]; // array to count subsequent combinations of two
-                                                                    // symbols in the sample (12-bits: 8-bits low,
-                                                                    // 4-bits
-                                                                    // high)
-    int[][] count2Low = new int[FSST_CODE_MAX][FSST_CODE_MAX]; // its value is (count2High*256+count2Low) -- but high is
-                                                               // 4-bits (we put two numbers in one, hence /2)
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    // the GetNext() methods read 64-bits from the high arrays, which may overrun the end by a few bytes
+    byte[] count1High = new byte[FSST_CODE_MAX + 8]; // array to count frequency of symbols as they occur in the
+                                                     // sample (16-bits)
+    byte[] count1Low = new byte[FSST_CODE_MAX]; // it is split in a low and high byte: cnt = count1High*256 + count1Low
+    byte[] count2High = new byte[FSST_CODE_MAX * FSST_CODE_MAX / 2 + 8]; // array to count subsequent combinations of
+                                                                         // two symbols in the sample (12-bits: 8-bits
+                                                                         // low, 4-bits high)
+    byte[] count2Low = new byte[FSST_CODE_MAX * FSST_CODE_MAX]; // its value is (count2High*256+count2Low) -- but high
+                                                                // is 4-bits (we put two numbers in one, hence /2)
     // 385KB -- but hot area likely just 10 + 30*4 = 130 cache lines (=8KB)
 
-    void count1Set(int pos1, int val, boolean noOpt) {
-        if (noOpt) {
-            count1[pos1] = val;
-        } else {
-            count1Low[pos1] = val & 255;
-            count1High[pos1] = val >> 8;
+    // the rows of count2 that have a nonzero counter, so that clear() only has to touch those
+    int[] touchedRows = new int[FSST_CODE_MAX];
+    int nTouched;
+    boolean[] rowTouched = new boolean[FSST_CODE_MAX];
+
+    // cleared Counters for the trainings of the process to reuse: at 385KB each, a training should not allocate them
+    private static final ArrayBlockingQueue<Counters> FREE = new ArrayBlockingQueue<>(
+            2 * Runtime.getRuntime().availableProcessors());
+
+    // a cleared Counters, reused if one is free
+    static Counters acquire() {
+        Counters counters = FREE.poll();
+        return counters != null ? counters : new Counters();
+    }
+
+    // clear counters and keep it for reuse (unless enough are kept already); the caller must not use it any more
+    static void release(Counters counters) {
+        counters.clear();
+        FREE.offer(counters);
+    }
+
+    void clear() {
+        Arrays.fill(count1High, (byte) 0);
+        Arrays.fill(count1Low, (byte) 0);
+        for (int i = 0; i < nTouched; i++) {
+            int row = touchedRows[i];
+            Arrays.fill(count2Low, row * FSST_CODE_MAX, (row + 1) * FSST_CODE_MAX, (byte) 0);
+            Arrays.fill(count2High, row * FSST_CODE_MAX / 2, (row + 1) * FSST_CODE_MAX / 2, (byte) 0);
+            rowTouched[row] = false;
         }
+        nTouched = 0;
     }
 
-    void count1Inc(int pos1, boolean noOpt) {
-        if (noOpt) {
-            count1[pos1]++;
-        } else {
-            if (!(count1Low[pos1]++ == 0)) // increment high early (when low==0, not when low==255). This means (high >
-                                           // 0) => (cnt > 0)
-                count1High[pos1]++; // (0,0)->(1,1)->..->(255,1)->(0,1)->(1,2)->(2,2)->(3,2)..(255,2)->(0,2)->(1,3)->(2,3)...
+    private void touch(int pos1) {
+        if (!rowTouched[pos1]) {
+            rowTouched[pos1] = true;
+            touchedRows[nTouched++] = pos1;
         }
     }
 
-    void count2Inc(int pos1, int pos2, boolean noOpt) {
-        if (noOpt)
-            count2[pos1][pos2]++;
-        else {
-            if (!(count2Low[pos1][pos2]++ == 0)) // increment high early (when low==0, not when low==255). This means
-                                                 // (high >
-                // 0) <=> (cnt > 0)
-                // inc 4-bits high counter with 1<<0 (1) or 1<<4 (16) -- depending on whether
-                // pos2 is even or odd, repectively
-                count2High[pos1][(pos2) >> 1] += 1 << (((pos2) & 1) << 2); // we take our chances with overflow.. (4K
-                                                                           // maxval, on a 8K sample)
+    /**
+     * Add the counts of other (counted over another part of the sample) to these. The counters wrap around like
+     * they do when incremented (count1 at 16 bits, count2 at 12 bits).
+     */
+    void merge(Counters other) {
+        for (int pos1 = 0; pos1 < FSST_CODE_MAX; pos1++) {
+            int cnt = (count1(other.count1High[pos1], other.count1Low[pos1]) + count1(count1High[pos1], count1Low[pos1]))
+                    & 0xFFFF;
+            count1Low[pos1] = (byte) cnt;
+            count1High[pos1] = (byte) ((cnt + 255) >> 8);
+        }
+        for (int i = 0; i < other.nTouched; i++) {
+            int row = other.touchedRows[i];
+            touch(row);
+            for (int pos2 = 0; pos2 < FSST_CODE_MAX; pos2 += 16) {
+                int high = row * FSST_CODE_MAX / 2 + (pos2 >> 1);
+                if ((long) LONG_LE.get(other.count2High, high) == 0)
+                    continue; // 16 zero counters
+                for (int j = pos2; j < pos2 + 16; j++) {
+                    int shift = (j & 1) << 2, pos = row * FSST_CODE_MAX + j, h = row * FSST_CODE_MAX / 2 + (j >> 1);
+                    int otherCnt = count2((other.count2High[h] >> shift) & 15, other.count2Low[pos]);
+                    if (otherCnt == 0)
+                        continue;
+                    int cnt = (count2((count2High[h] >> shift) & 15, count2Low[pos]) + otherCnt) & 0xFFF;
+                    count2Low[pos] = (byte) cnt;
+                    count2High[h] = (byte) ((count2High[h] & ~(15 << shift)) | ((((cnt + 255) >> 8) & 15) << shift));
+                }
+            }
         }
     }
 
-    private static boolean longToBoolean(long l) {
-        return l != 0 ? true : false;
+    // the value of a (high,low) counter pair, high is incremented early (see count1Inc)
+    private static int count1(byte high, byte low) {
+        return ((((high & 0xFF) - (low != 0 ? 1 : 0)) & 0xFF) << 8) | (low & 0xFF);
     }
 
-/** Advance pos1 to the next nonzero counter in register range.
- * Read 16-bits single symbol counter, split into two 8-bits numbers (count1Low, count1High), while skipping over zeros
-*/
-    int count1GetNext(int pos1, boolean noOpt) {
-        if (noOpt) {
-            return count1[pos1];
-        }
-        long high = count1High[pos1]; // note: this reads 8 subsequent counters [pos1..pos1+7]
+    private static int count2(int high, byte low) {
+        return (((high - (low != 0 ? 1 : 0)) & 15) << 8) | (low & 0xFF);
+    }
 
-        int zero = (int) (longToBoolean(high) ? (Long.numberOfLeadingZeros(high) >> 3) : (long) 7); // number of zero
-                                                                                                    // bytes
-        high = (high >> (zero << 3)) & 255; // advance to nonzero counter
-        if (((pos1 += zero) >= FSST_CODE_MAX) || !(high == 0)) // SKIP! advance pos2
-            return 0; // all zero
+    void backup1(byte[] buf) {
+        System.arraycopy(count1High, 0, buf, 0, FSST_CODE_MAX);
+        System.arraycopy(count1Low, 0, buf, FSST_CODE_MAX, FSST_CODE_MAX);
+    }
 
-        int low = count1Low[pos1];
-        if (low == 0)
-            high--; // high is incremented early and low late, so decrement high (unless low==0)
-        return (int) ((high << 8) + low);
+    void restore1(byte[] buf) {
+        System.arraycopy(buf, 0, count1High, 0, FSST_CODE_MAX);
+        System.arraycopy(buf, FSST_CODE_MAX, count1Low, 0, FSST_CODE_MAX);
+    }
 
+    void count1Set(int pos1, int val) {
+        count1Low[pos1] = (byte) val;
+        count1High[pos1] = (byte) (val >> 8);
     }
 
-    int count2GetNext(int pos1, int pos2, boolean noOpt) {
-        if (noOpt) {
-            return count2[pos1][pos2];
-        }
-        // read 12-bits pairwise symbol counter, split into low 8-bits and high 4-bits
-        // number while skipping over zeros
-        long high = count2High[pos1][pos2 >> 1]; // note: this reads 16 subsequent counters [pos2..pos2+15]
-        high >>= ((pos2 & 1) << 2); // odd pos2: ignore the lowest 4 bits & we see only 15 counters
-        // number of zero 4-bits counters
-        int zero = longToBoolean(high) ? (Long.numberOfLeadingZeros(high) >> 2) : ((int) 15 - (pos2 & (int) 1));
-        high = (high >> (zero << 2)) & 15; // advance to nonzero counter
-        if (((pos2 += zero) >= FSST_CODE_MAX) || !(high == 0)) // SKIP! advance pos2
-            return (int) 0; // all zero
-
-        int low = count2Low[pos1][pos2];
-        if (low == 0)
-            high--; // high is incremented early and low late, so decrement high (unless low==0)
-        return (int) ((high << 8) + low);
+    void count1Inc(int pos1) {
+        if (count1Low[pos1]++ == 0) // increment high early (when low==0, not when low==255). This means (high > 0)
+                                    // <=> (cnt > 0)
+            count1High[pos1]++; // (0,0)->(1,1)->..->(255,1)->(0,1)->(1,2)->(2,2)->(3,2)..(255,2)->(0,2)->(1,3)->(2,3)...
+    }
 
+    void count2Inc(int pos1, int pos2) {
+        touch(pos1);
+        if (count2Low[pos1 * FSST_CODE_MAX + pos2]++ == 0) // increment high early (when low==0, not when low==255).
+                                                           // This means (high > 0) <=> (cnt > 0)
+            // inc 4-bits high counter with 1<<0 (1) or 1<<4 (16) -- depending on whether
+            // pos2 is even or odd, repectively
+            count2High[pos1 * FSST_CODE_MAX / 2 + (pos2 >> 1)] += 1 << ((pos2 & 1) << 2); // we take our chances with
+                                                                                          // overflow.. (4K maxval, on
+                                                                                          // a 8K sample)
     }
 
+    /**
+     * Advance pos1 to the next nonzero counter in register range. Read 16-bits single symbol counter, split into two
+     * 8-bits numbers (count1Low, count1High), while skipping over zeros.
+     *
+     * @return the (possibly advanced) pos1 in the high 32 bits, the count in the low 32 bits
+     */
+    long count1GetNext(int pos1) {
+        long high = (long) LONG_LE.get(count1High, pos1); // note: this reads 8 subsequent counters [pos1..pos1+7]
+
+        int zero = high != 0 ? (Long.numberOfTrailingZeros(high) >> 3) : 7; // number of zero bytes
+        high = (high >>> (zero << 3)) & 255; // advance to nonzero counter
+        if (((pos1 += zero) >= FSST_CODE_MAX) || high == 0) // SKIP! advance pos1
+            return (long) pos1 << 32; // all zero
+
+        int low = count1Low[pos1] & 0xFF;
+        if (low != 0)
+            high--; // high is incremented early and low late, so decrement high (unless low==0)
+        return ((long) pos1 << 32) | ((high << 8) + low);
+    }
+
+    /**
+     * Advance pos2 to the next nonzero counter in register range. Read 12-bits pairwise symbol counter, split into
+     * low 8-bits and high 4-bits number while skipping over zeros.
+     *
+     * @return the (possibly advanced) pos2 in the high 32 bits, the count in the low 32 bits
+     */
+    long count2GetNext(int pos1, int pos2) {
+        long high = (long) LONG_LE.get(count2High, pos1 * FSST_CODE_MAX / 2 + (pos2 >> 1)); // note: this reads 16
+                                                                                         // subsequent counters
+                                                                                         // [pos2..pos2+15]
+        high >>>= ((pos2 & 1) << 2); // odd pos2: ignore the lowest 4 bits & we see only 15 counters
+
+        int zero = high != 0 ? (Long.numberOfTrailingZeros(high) >> 2) : (15 - (pos2 & 1)); // number of zero 4-bits
+                                                                                            // counters
+        high = (high >>> (zero << 2)) & 15; // advance to nonzero counter
+        if (((pos2 += zero) >= FSST_CODE_MAX) || high == 0) // SKIP! advance pos2
+            return (long) pos2 << 32; // all zero
+
+        int low = count2Low[pos1 * FSST_CODE_MAX + pos2] & 0xFF;
+        if (low != 0)
+            high--; // high is incremented early and low late, so decrement high (unless low==0)
+        return ((long) pos2 << 32) | ((high << 8) + low);
+    }
 }
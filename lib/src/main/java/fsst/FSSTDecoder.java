@@ -1,16 +1,452 @@
 package fsst;
 
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class FSSTDecoder {
+    // a compressed string is simply a string of 1-byte codes; except for code 255, which is followed by an
+    // uncompressed byte
+    static final int FSST_ESC = 255;
+    static final long FSST_CORRUPT = 32774747032022883L; // 7-byte number in little endian containing "corrupt"
+
+    // symbols are stored in little endian, so both views are fixed to little endian regardless of the platform
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
     long version;
     char zeroTerminated;
     char[] len = new char[255];
     long[] symbol = new long[256];
+    // counters of the bulk calls since the last import, null unless -Dfsst.metrics=true
+    FSSTMetrics metrics = FSSTMetrics.ENABLED ? new FSSTMetrics() : null;
+    // handed out by a SymbolTableRegistry to everyone with the same table, which must then never be replaced
+    boolean shared;
+
+    public FSSTDecoder() {
+    }
+
+    /** The counters of the bulk calls of this decoder since it imported its table; null unless -Dfsst.metrics=true. */
+    public FSSTMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Load a symbol table serialized by {@link FSSTEncoder#export} (or fsst_export() of libfsst) from
+     * buf[offset..]. The symbols are read straight from the segment into this decoder, so a decoder can be
+     * (re)loaded from a page header in place.
+     *
+     * @return the number of bytes read, or 0 if the version does not match or the length histogram is corrupt
+     * @throws IllegalStateException if this is a shared decoder of a {@link SymbolTableRegistry}
+     */
+    public int import_from_buffer(MemorySegment buf, long offset) {
+        if (shared)
+            throw new IllegalStateException("decoder shared by a SymbolTableRegistry");
+        // version field (first 8 bytes) is now there just for future-proofness, unused still (skipped)
+        long version = buf.get(Utils.JAVA_LONG_LE, offset);
+        if ((version >>> 32) != FSSTEncoder.FSST_VERSION)
+            return 0;
+        int zeroTerminated = buf.get(ValueLayout.JAVA_BYTE, offset + 8) & 1;
+        long lenHisto = buf.get(Utils.JAVA_LONG_LE, offset + 9); // lenHisto[i] is byte i
+        int nSymbols = 0;
+        for (int i = 0; i < 8; i++)
+            nSymbols += (int) (lenHisto >>> (8 * i)) & 0xFF;
+        if (nSymbols > 255 || (zeroTerminated != 0 && (lenHisto & 0xFF) == 0))
+            return 0;
+        this.version = version;
+        this.zeroTerminated = (char) zeroTerminated;
+        if (FSSTMetrics.ENABLED)
+            this.metrics = new FSSTMetrics();
+
+        // in case of zero-terminated, first symbol is "" (zero always, may be overwritten)
+        len[0] = 1;
+        symbol[0] = 0;
+
+        // we use lenHisto[0] as 1-byte symbol run length (at the end)
+        int code = zeroTerminated;
+        long pos = offset + 17, end = buf.byteSize();
+
+        // now get all symbols from the buffer
+        for (int l = 1; l <= 8; l++) { /* l = 1,2,3,4,5,6,7,8 */
+            int n = (int) (lenHisto >>> (8 * (l & 7))) & 0xFF; /* lenHisto[1,2,3,4,5,6,7,0] */
+            if (l == 8)
+                n -= zeroTerminated; // if zeroTerminated, then symbol "" aka 1-byte code=0, is not stored at the end
+            int symbolLen = (l & 7) + 1; /* len = 2,3,4,5,6,7,8,1 */
+            long mask = -1L >>> (64 - 8 * symbolLen);
+            for (int i = 0; i < n; i++, code++, pos += symbolLen) {
+                len[code] = (char) symbolLen;
+                if (pos + 8 <= end) {
+                    symbol[code] = buf.get(Utils.JAVA_LONG_LE, pos) & mask; // little endian symbols
+                } else {
+                    symbol[code] = 0;
+                    for (int j = 0; j < symbolLen; j++)
+                        symbol[code] |= (buf.get(ValueLayout.JAVA_BYTE, pos + j) & 0xFFL) << (8 * j);
+                }
+            }
+        }
+
+        // fill unused symbols with text "corrupt". Gives a chance to detect corrupted code sequences (if there are
+        // unused symbols).
+        while (code < 255) {
+            symbol[code] = FSST_CORRUPT;
+            len[code++] = 8;
+        }
+        return (int) (pos - offset);
+    }
+
+    /**
+     * Byte-size of the exported table at buf[offset..] according to the length histogram in its first 17 bytes
+     * (less than 17 if it cannot be a table).
+     */
+    static int exportedSize(MemorySegment buf, long offset) {
+        long lenHisto = buf.get(Utils.JAVA_LONG_LE, offset + 9);
+        int size = 17 - (buf.get(ValueLayout.JAVA_BYTE, offset + 8) & 1); // zeroTerminated: code 0 is not stored
+        for (int i = 0; i < 8; i++)
+            size += (i + 1) * ((int) (lenHisto >>> (8 * i)) & 0xFF);
+        return size;
+    }
+
+    /** Approximate heap size of this decoder in bytes (object and array headers included). */
+    public long footprintBytes() {
+        final int header = 16;
+        return header + 8 + 2 + 2 * 4 // this object: header, version, zeroTerminated, array references
+                + header + 2L * len.length
+                + header + 8L * symbol.length;
+    }
+
+    /** Like {@link #import_from_buffer(MemorySegment, long)}, from buf[offset..]. */
+    public int import_from_buffer(byte[] buf, int offset) {
+        return import_from_buffer(MemorySegment.ofArray(buf), offset);
+    }
+
+    /**
+     * Like {@link #import_from_buffer(MemorySegment, long)}, from the position of buf (heap or direct), which is
+     * left unchanged.
+     */
+    public int import_from_buffer(ByteBuffer buf) {
+        return import_from_buffer(MemorySegment.ofBuffer(buf), 0);
+    }
+
+    /**
+     * Decompress a single string. Every symbol is written as one unaligned 8-byte store, after which the output
+     * position only advances by the real symbol length. The unrolled loop therefore needs 32 bytes of slack at the
+     * end of the output; the last few codes are decoded with exact-length copies.
+     *
+     * @param in     compressed codes
+     * @param off    offset of the first code in {@code in}
+     * @param lenIn  byte-length of the compressed string
+     * @param out    output buffer, decoded bytes beyond {@code out.length} are dropped
+     * @param outOff offset in {@code out} where the decoded string starts
+     * @return byte-size of the decompressed string. If it exceeds the room in {@code out}, the output is truncated.
+     */
+    public int decompress(byte[] in, int off, int lenIn, byte[] out, int outOff) {
+        final char[] len = this.len;
+        final long[] symbol = this.symbol;
+        final int end = off + lenIn, size = out.length;
+        int code, posIn = off, posOut = outOff;
+
+        while (posOut + 32 <= size && posIn + 4 <= end) {
+            int nextBlock = (int) INT_LE.get(in, posIn);
+            // a byte in escapeMask has its high bit set iff the corresponding code is FSST_ESC (0xFF)
+            int escapeMask = (nextBlock & 0x80808080) & ((((~nextBlock) & 0x7F7F7F7F) + 0x7F7F7F7F) ^ 0x80808080);
+            if (escapeMask == 0) {
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+            } else {
+                int firstEscapePos = Integer.numberOfTrailingZeros(escapeMask) >> 3;
+                switch (firstEscapePos) { // Duff's device
+                    case 3:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    case 2:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    case 1:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    default:
+                        posIn += 2;
+                        out[posOut++] = in[posIn - 1]; // decompress an escaped byte
+                }
+            }
+        }
+        if (posOut + 24 <= size) { // handle the possibly 3 last bytes without a loop
+            if (posIn + 2 <= end) {
+                out[posOut] = in[posIn + 1];
+                if ((in[posIn] & 0xFF) != FSST_ESC) {
+                    code = in[posIn++] & 0xFF;
+                    LONG_LE.set(out, posOut, symbol[code]);
+                    posOut += len[code];
+                    if ((in[posIn] & 0xFF) != FSST_ESC) {
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                    } else {
+                        posIn += 2;
+                        out[posOut++] = in[posIn - 1];
+                    }
+                } else {
+                    posIn += 2;
+                    posOut++;
+                }
+            }
+            if (posIn < end) { // last code cannot be an escape
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+            }
+        }
+        while (posIn < end) {
+            if ((code = in[posIn++] & 0xFF) < FSST_ESC) {
+                int posWrite = posOut, endWrite = posOut + len[code];
+                long word = symbol[code];
+                if ((posOut = endWrite) > size)
+                    endWrite = size;
+                for (; posWrite < endWrite; posWrite++, word >>>= 8) // only write if there is room
+                    out[posWrite] = (byte) word;
+            } else {
+                if (posOut < size)
+                    out[posOut] = in[posIn]; // idem
+                posIn++;
+                posOut++;
+            }
+        }
+        if (posOut >= size && (zeroTerminated & 1) != 0)
+            out[size - 1] = 0;
+        return posOut - outOff; // full size of decompressed string (could be larger than the room in out)
+    }
+
+    /**
+     * Decompress a batch of strings into one output arena. Compressed string i is
+     * {@code in[inOffsets[i], inOffsets[i+1])}; it is decoded to {@code out[outOffsets[i], outOffsets[i+1])},
+     * starting at {@code outOffsets[0]}.
+     *
+     * Decoding one short string at a time spends most of its time on the call and on the tail of each string,
+     * which cannot use the 4-code blocks of {@link #decompress(byte[], int, int, byte[], int)}. But the strings are
+     * contiguous in both arenas, so the batch is one code stream: it is decoded with the same blocks, and the 8-byte
+     * stores that spill into the next string are overwritten by it. The output offsets are recorded on the way, when
+     * the stream reaches the start of a string; a block that would cross a string start is decoded code by code.
+     *
+     * @return the number of decompressed strings (<=n) that fit the output arena; outOffsets[0..return] are set.
+     */
+    public int decompressAll(int n, int[] inOffsets, byte[] in, byte[] out, int[] outOffsets) {
+        FSSTMetrics.DecompressEvent event = FSSTMetrics.decompressEvent();
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        int done = decompressStream(n, inOffsets, in, out, outOffsets);
+        if (FSSTMetrics.ENABLED || event != null) {
+            long bytesIn = inOffsets[done] - inOffsets[0], bytesOut = outOffsets[done] - outOffsets[0];
+            if (FSSTMetrics.ENABLED)
+                metrics.decompressed(done, bytesIn, bytesOut, System.nanoTime() - start);
+            if (event != null)
+                event.end(done, bytesIn, bytesOut);
+        }
+        return done;
+    }
+
+    private int decompressStream(int n, int[] inOffsets, byte[] in, byte[] out, int[] outOffsets) {
+        final char[] len = this.len;
+        final long[] symbol = this.symbol;
+        final int end = inOffsets[n], size = out.length;
+        int code, posIn = inOffsets[0], posOut = outOffsets[0];
+        int i = 0, next = posIn; // string i is the next one to start, at in[next]
+
+        while (posOut + 32 <= size && posIn + 4 <= end) {
+            if (next < posIn + 4) {
+                while (next == posIn) {
+                    outOffsets[i] = posOut;
+                    next = inOffsets[++i];
+                }
+                if (next < posIn + 4) { // a string starts inside the block: one code
+                    if ((code = in[posIn] & 0xFF) < FSST_ESC) {
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        posIn++;
+                    } else {
+                        out[posOut++] = in[posIn + 1];
+                        posIn += 2;
+                    }
+                    continue;
+                }
+            }
+            int nextBlock = (int) INT_LE.get(in, posIn);
+            int escapeMask = (nextBlock & 0x80808080) & ((((~nextBlock) & 0x7F7F7F7F) + 0x7F7F7F7F) ^ 0x80808080);
+            if (escapeMask == 0) {
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+                code = in[posIn++] & 0xFF;
+                LONG_LE.set(out, posOut, symbol[code]);
+                posOut += len[code];
+            } else {
+                int firstEscapePos = Integer.numberOfTrailingZeros(escapeMask) >> 3;
+                switch (firstEscapePos) { // Duff's device
+                    case 3:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    case 2:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    case 1:
+                        code = in[posIn++] & 0xFF;
+                        LONG_LE.set(out, posOut, symbol[code]);
+                        posOut += len[code];
+                        // fall through
+                    default:
+                        posIn += 2;
+                        out[posOut++] = in[posIn - 1]; // decompress an escaped byte
+                }
+            }
+        }
+        while (posIn < end) { // exact stores near the end of out, stop at the first string that does not fit
+            while (next == posIn) {
+                outOffsets[i] = posOut;
+                next = inOffsets[++i];
+            }
+            code = in[posIn] & 0xFF;
+            int n1 = code < FSST_ESC ? len[code] : 1;
+            if (posOut + n1 > size)
+                return i - 1;
+            if (code < FSST_ESC) {
+                storeExact(out, posOut, symbol[code], n1);
+                posIn++;
+            } else {
+                out[posOut] = in[posIn + 1];
+                posIn += 2;
+            }
+            posOut += n1;
+        }
+        while (i <= n) // the end of the last string, and the empty strings at the end
+            outOffsets[i++] = posOut;
+        return n;
+    }
+
+    private static void storeExact(byte[] out, int posOut, long word, int n) {
+        for (int i = 0; i < n; i++, word >>>= 8)
+            out[posOut + i] = (byte) word;
+    }
+
+    /**
+     * Off-heap variant of {@link #decompress(byte[], int, int, byte[], int)}: reads the codes from and writes the
+     * decoded bytes to memory segments (e.g. page buffers) without heap copies.
+     */
+    public long decompress(MemorySegment in, long off, long lenIn, MemorySegment out, long outOff) {
+        final char[] len = this.len;
+        final long[] symbol = this.symbol;
+        final long end = off + lenIn, size = out.byteSize();
+        long posIn = off, posOut = outOff;
+        int code;
 
-    FSSTDecoder() {
+        while (posOut + 32 <= size && posIn + 4 <= end) {
+            int nextBlock = in.get(Utils.JAVA_INT_LE, posIn);
+            int escapeMask = (nextBlock & 0x80808080) & ((((~nextBlock) & 0x7F7F7F7F) + 0x7F7F7F7F) ^ 0x80808080);
+            if (escapeMask == 0) {
+                code = nextBlock & 0xFF;
+                out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                posOut += len[code];
+                code = (nextBlock >>> 8) & 0xFF;
+                out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                posOut += len[code];
+                code = (nextBlock >>> 16) & 0xFF;
+                out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                posOut += len[code];
+                code = nextBlock >>> 24;
+                out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                posOut += len[code];
+                posIn += 4;
+            } else {
+                int firstEscapePos = Integer.numberOfTrailingZeros(escapeMask) >> 3;
+                for (int i = 0; i < firstEscapePos; i++, nextBlock >>>= 8) {
+                    code = nextBlock & 0xFF;
+                    out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                    posOut += len[code];
+                }
+                posIn += firstEscapePos + 2;
+                out.set(ValueLayout.JAVA_BYTE, posOut++, in.get(ValueLayout.JAVA_BYTE, posIn - 1)); // escaped byte
+            }
+        }
+        while (posIn < end) {
+            if ((code = in.get(ValueLayout.JAVA_BYTE, posIn++) & 0xFF) < FSST_ESC) {
+                if (posOut + 8 <= size) {
+                    out.set(Utils.JAVA_LONG_LE, posOut, symbol[code]);
+                    posOut += len[code];
+                    continue;
+                }
+                long posWrite = posOut, endWrite = posOut + len[code];
+                long word = symbol[code];
+                if ((posOut = endWrite) > size)
+                    endWrite = size;
+                for (; posWrite < endWrite; posWrite++, word >>>= 8) // only write if there is room
+                    out.set(ValueLayout.JAVA_BYTE, posWrite, (byte) word);
+            } else {
+                if (posOut < size)
+                    out.set(ValueLayout.JAVA_BYTE, posOut, in.get(ValueLayout.JAVA_BYTE, posIn));
+                posIn++;
+                posOut++;
+            }
+        }
+        if (posOut >= size && (zeroTerminated & 1) != 0)
+            out.set(ValueLayout.JAVA_BYTE, size - 1, (byte) 0);
+        return posOut - outOff;
     }
 
-    int import_from_buffer(int[] buffer) {
-        return 0;
+    /**
+     * Decompress a batch of strings from one segment into another. Compressed string i is
+     * {@code in[inOffsets[i], inOffsets[i+1])}; it is decoded to {@code out[outOffsets[i], outOffsets[i+1])},
+     * starting at {@code outOffsets[0]}.
+     *
+     * @return the number of decompressed strings (<=n) that fit the output segment.
+     */
+    public int decompress(int n, MemorySegment in, long[] inOffsets, MemorySegment out, long[] outOffsets) {
+        FSSTMetrics.DecompressEvent event = FSSTMetrics.decompressEvent();
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        long outPos = outOffsets[0], size = out.byteSize();
+        int done = 0;
+        for (; done < n; done++) {
+            long decoded = decompress(in, inOffsets[done], inOffsets[done + 1] - inOffsets[done], out, outPos);
+            if (decoded > size - outPos) {
+                break; // truncated, does not fit
+            }
+            outOffsets[done + 1] = outPos += decoded;
+        }
+        if (FSSTMetrics.ENABLED || event != null) {
+            long bytesIn = inOffsets[done] - inOffsets[0], bytesOut = outPos - outOffsets[0];
+            if (FSSTMetrics.ENABLED)
+                metrics.decompressed(done, bytesIn, bytesOut, System.nanoTime() - start);
+            if (event != null)
+                event.end(done, bytesIn, bytesOut);
+        }
+        return done;
     }
 
 }
@@ -1,172 +1,482 @@
 package fsst;
 
-import java.util.ArrayList;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compresses strings with one symbol table. An encoder is immutable: it only holds its (shared) table, so one
+ * instance can be used by any number of threads at once, and {@link #duplicate()} costs a small object.
+ */
 public class FSSTEncoder {
     static final long FSST_ENDIAN_MARKER = 1L;
     static final long FSST_VERSION_20190218 = 20190218L;
-    // static final long FSST_VERSION;
+    static final long FSST_VERSION = FSST_VERSION_20190218;
+    // maxlen of deserialized fsst header, produced/consumed by export() resp. FSSTDecoder.import_from_buffer()
+    public static final int FSST_MAXHEADER = 8 + 1 + 8 + 2048 + 1;
 
-    SymbolTable symbolTable;
-    Counters counters;
-    int[] simdBuffer = new int[3 << 19];
+    // with -Dfsst.adaptive=true the scalar variant of a table is not guessed from its symbol lengths, but timed on the
+    // first batch the table compresses (see probeVariant)
+    static final boolean ADAPTIVE_ENABLED = Boolean.getBoolean("fsst.adaptive");
+    static final int PROBE_BYTES = 16 << 10; // of the batch, the variants are timed on
+    static final int PROBE_MIN_BYTES = PROBE_BYTES / 4; // a smaller batch is not timed, it keeps the heuristic
+    static final int PROBE_ROUNDS = 5; // interleaved, the best time of each variant counts
 
-/** */
-    FSSTEncoder() {
-    }
+    final CompactSymbolTable table;
 
 // TODO: Ask about string arrays instead of this char arrays.
-   /** Calibrate a FSST symbol table from a batch of strings (it is best to provide at least 16KB of data). */
+   /**
+    * Calibrate a FSST symbol table from a batch of strings (it is best to provide at least 16KB of data). The
+    * strings are stored back to back in inputString, string i has length inputLength[i]; only the low byte of each
+    * char is used.
+    */
     FSSTEncoder(int n, int[] inputLength, char[] inputString, int zeroTerminated) {
-        int[] sampleBuffer = new int[(int) Symbol.FSST_SAMPLEMAXSZ];
-        int[] sampleLen = inputLength;
-        Object[] sample = makeSample(simdBuffer, sampleBuffer, sampleLen, n == 0 ? n : 1).toArray();
-        FSSTEncoder encoder = new FSSTEncoder();
-        SymbolTable symbolTable = new SymbolTable();
-        encoder.symbolTable = symbolTable.buildSymbolTable(encoder.counters, (Integer[]) sample, sampleLen,
-                zeroTerminated);
-        if (sampleLen != inputLength) {
-            // TODO: There might be a better way of doing the delete operator as the c++
-            // code is doing but this is my current closest guess
-            Arrays.fill(sampleLen, 0);
-        }
-        // TODO: There might be a better way of doing the delete operator as the c++
-        // code is doing but this is my current closest guess
-        Arrays.fill(sampleBuffer, 0);
+        this(n, toArena(n, inputLength, inputString), offsets(n, inputLength), zeroTerminated);
+    }
+
+    /**
+     * Calibrate a FSST symbol table from a batch of strings stored back to back in one arena, string i is
+     * {@code in[inOffsets[i], inOffsets[i+1])}. The sample is counted in parallel in the common pool.
+     */
+    FSSTEncoder(int n, byte[] in, int[] inOffsets, int zeroTerminated) {
+        this(ForkJoinPool.commonPool(), n, in, inOffsets, zeroTerminated);
+    }
+
+    /** Like {@link #FSSTEncoder(int, byte[], int[], int)}, the sample is counted in parallel in pool. */
+    FSSTEncoder(ForkJoinPool pool, int n, byte[] in, int[] inOffsets, int zeroTerminated) {
+        byte[] sampleBuf = new byte[(int) Symbol.FSST_SAMPLEMAXSZ];
+        int[] sampleLine = new int[(int) (n + Symbol.FSST_SAMPLEMAXSZ / Symbol.FSST_SAMPLELINE)];
+        int[] sampleLen = new int[sampleLine.length];
+        int nSample = makeSample(sampleBuf, sampleLine, sampleLen, in, inOffsets, n);
+        this.table = SymbolTable.buildSymbolTable(pool, sampleBuf, sampleLine, sampleLen, nSample, zeroTerminated, 0)
+                .compact();
     }
 
-    /** Create another FSSTEncoder instance, necessary to do multi-threaded encoding using the same symbol table.
+    /**
+     * Calibrate a FSST symbol table in one pass over a stream of strings (such as a multi-GB column), in bounded
+     * memory: see {@link Sampler}. The same strings and seed give the same table.
+     */
+    FSSTEncoder(Iterator<ByteBuffer> strings, long seed, int zeroTerminated) {
+        Sampler sampler = new Sampler(seed);
+        sampler.addAll(strings);
+        this.table = buildSymbolTable(sampler, seed, zeroTerminated).compact();
+    }
+
+    /** Like {@link #FSSTEncoder(Iterator, long, int)}, the strings are consumed sequentially. */
+    FSSTEncoder(Spliterator<ByteBuffer> strings, long seed, int zeroTerminated) {
+        Sampler sampler = new Sampler(seed);
+        sampler.addAll(strings);
+        this.table = buildSymbolTable(sampler, seed, zeroTerminated).compact();
+    }
+
+    private static SymbolTable buildSymbolTable(Sampler sampler, long seed, int zeroTerminated) {
+        int[] sampleLine = new int[Sampler.CAPACITY];
+        int[] sampleLen = new int[Sampler.CAPACITY];
+        int nSample = sampler.lines(sampleLine, sampleLen);
+        return SymbolTable.buildSymbolTable(ForkJoinPool.commonPool(), sampler.arena, sampleLine, sampleLen, nSample,
+                zeroTerminated, seed);
+    }
+
+    /** Create an FSSTEncoder for a finalized symbol table. */
+    FSSTEncoder(SymbolTable symbolTable) {
+        this(symbolTable.compact());
+    }
+
+    /** Create another FSSTEncoder instance for the same symbol table (one instance can also be shared by threads).
      * 
-     * @param symbolTable table to duplicate.
+     * @param table table to share.
     */
-    FSSTEncoder(SymbolTable symbolTable) {
-        this.symbolTable = symbolTable;
+    FSSTEncoder(CompactSymbolTable table) {
+        this.table = table;
+    }
+
+    /**
+     * The hash table slot of a symbol of 3 or more bytes (little endian in a long). A table holds one such symbol
+     * per slot, see {@link #fromSymbols}.
+     */
+    public static int hashSlot(long symbol) {
+        return (int) (Symbol.FSST_HASH(symbol & 0xFFFFFF) & ((1 << Symbol.FSST_HASH_LOG2SIZE) - 1));
     }
 
-    static ArrayList<Integer> makeSample(int[] sampleBuffer, int[] inputString, int[] lengthArray, int lineCount) {
-        int totalSize = 0;
-        ArrayList<Integer> samples = new ArrayList<Integer>();
-        for (int i = 0; i < lineCount; i++) {
-            totalSize += lengthArray[i];
+    /**
+     * Create an encoder for a given set of symbols, such as one selected offline by toolbox.SubsetSelect. Symbols
+     * are added in order; a symbol of 3+ bytes that lands in the hash table slot of an earlier one is dropped (the
+     * hash engine can only find one symbol per slot), and so is anything after the 255th symbol.
+     *
+     * @param symbols    symbol i is the lengths[i] low bytes of symbols[i], little endian
+     * @param terminator a byte that occurs in none of the symbols, preferably one that does not occur in the data
+     */
+    public static FSSTEncoder fromSymbols(int n, long[] symbols, int[] lengths, int terminator) {
+        return fromSymbols(n, symbols, lengths, terminator, MatchEngine.HASH);
+    }
+
+    /**
+     * Like {@link #fromSymbols(int, long[], int[], int)}, for the given engine. With {@link MatchEngine#BUCKETS} no
+     * symbol is dropped for its hash slot: the first 255 symbols are all kept.
+     */
+    public static FSSTEncoder fromSymbols(int n, long[] symbols, int[] lengths, int terminator, MatchEngine engine) {
+        if (engine == MatchEngine.BUCKETS) {
+            // codes in the order of SymbolTable.finalize(): by length 2..8, then the single bytes
+            n = Math.min(n, 255);
+            long[] values = new long[n];
+            byte[] lens = new byte[n];
+            int code = 0;
+            for (int l = 1; l <= Symbol.maxLength; l++) {
+                int len = (l & 7) + 1; /* len = 2,3,4,5,6,7,8,1 */
+                for (int i = 0; i < n; i++) {
+                    if (lengths[i] == len) {
+                        values[code] = symbols[i];
+                        lens[code++] = (byte) len;
+                    }
+                }
+            }
+            return new FSSTEncoder(new CompactSymbolTable(code, values, lens, terminator, 0, false, engine));
+        }
+        SymbolTable symbolTable = new SymbolTable();
+        symbolTable.terminator = terminator;
+        byte[] bytes = new byte[Symbol.maxLength];
+        for (int i = 0; i < n && symbolTable.nSymbols < 255; i++) {
+            for (int j = 0; j < lengths[i]; j++)
+                bytes[j] = (byte) (symbols[i] >>> (8 * j));
+            symbolTable.add(new Symbol(bytes, 0, lengths[i]));
         }
-        if (totalSize < Symbol.FSST_SAMPLETARGET) {
-            for (int i = 0; i < lineCount; i++) {
-                samples.add(inputString[i]);
+        symbolTable.finalize(0);
+        return new FSSTEncoder(symbolTable);
+    }
+
+    private static byte[] toArena(int n, int[] inputLength, char[] inputString) {
+        int size = 0;
+        for (int i = 0; i < n; i++)
+            size += inputLength[i];
+        byte[] arena = new byte[size];
+        for (int i = 0; i < size; i++)
+            arena[i] = (byte) inputString[i];
+        return arena;
+    }
+
+    private static int[] offsets(int n, int[] inputLength) {
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            offsets[i + 1] = offsets[i] + inputLength[i];
+        return offsets;
+    }
+
+    /**
+     * Quickly select a uniformly random set of lines such that we have between [FSST_SAMPLETARGET,FSST_SAMPLEMAXSZ)
+     * string bytes, copied into sampleBuf. Sample line i is {@code sampleBuf[sampleLine[i], sampleLine[i]+sampleLen[i])}.
+     *
+     * @return the number of sample lines
+     */
+    static int makeSample(byte[] sampleBuf, int[] sampleLine, int[] sampleLen, byte[] in, int[] inOffsets,
+            int nlines) {
+        long totSize = inOffsets[nlines] - inOffsets[0];
+        int nSample = 0, pos = 0;
+
+        if (totSize < Symbol.FSST_SAMPLETARGET) {
+            for (int i = 0; i < nlines; i++) {
+                int len = inOffsets[i + 1] - inOffsets[i];
+                System.arraycopy(in, inOffsets[i], sampleBuf, pos, len);
+                sampleLine[nSample] = pos;
+                sampleLen[nSample++] = len;
+                pos += len;
             }
         } else {
-            // TODO Check that the long conversions are safe and correct and that the cast
-            // to int is safe
-            long rand = Symbol.FSST_HASH(4637947);
-            int sampleLimit = (int) (sampleBuffer.length + Symbol.FSST_SAMPLETARGET);
-            int[] sampleLen = new int[(int) (lineCount + Symbol.FSST_SAMPLEMAXSZ / Symbol.FSST_SAMPLELINE)];
-            lengthArray = sampleLen;
-            while (sampleBuffer.length < sampleLimit) {
+            long sampleRnd = Symbol.FSST_HASH(4637947);
+            while (pos < Symbol.FSST_SAMPLETARGET) {
                 // choose a non-empty line
-                rand = Symbol.FSST_HASH(rand);
-                int linenr = (int) (rand % lineCount);
-                while (lengthArray[linenr] == 0) {
-                    if (++linenr == lineCount) {
+                sampleRnd = Symbol.FSST_HASH(sampleRnd);
+                int linenr = (int) Long.remainderUnsigned(sampleRnd, nlines);
+                while (inOffsets[linenr + 1] == inOffsets[linenr])
+                    if (++linenr == nlines)
                         linenr = 0;
-                    }
-                }
 
                 // choose a chunk
-                int chunks = (int) (1 + ((lengthArray[linenr] - 1) / Symbol.FSST_SAMPLELINE));
-                rand = Symbol.FSST_HASH(rand);
-                int chunk = (int) (Symbol.FSST_SAMPLELINE * (rand % chunks));
+                int lineLen = inOffsets[linenr + 1] - inOffsets[linenr];
+                long chunks = 1 + ((lineLen - 1) / Symbol.FSST_SAMPLELINE);
+                sampleRnd = Symbol.FSST_HASH(sampleRnd);
+                int chunk = (int) (Symbol.FSST_SAMPLELINE * Long.remainderUnsigned(sampleRnd, chunks));
 
                 // add the chunk to the sample
-                int len = Math.min(lengthArray[linenr] - chunk, (int) Symbol.FSST_SAMPLELINE);
-                // Memcpy approximation I think
-                Arrays.fill(sampleBuffer, inputString[linenr] + chunk);
-                for (int i = 0; i < sampleBuffer.length; i++) {
-                    Integer value = Integer.valueOf(sampleBuffer[i]);
-                    samples.add(value);
-                }
-                for (int i = 0; i < sampleLen.length; i++) {
-                    sampleLen[i]++;
-                }
-                assert (sampleLen.length == sampleBuffer.length);
-                for (int i = 0; i < sampleLen.length; i++) {
-                    sampleBuffer[i] += sampleLen[i];
-                }
+                int len = (int) Math.min(lineLen - chunk, Symbol.FSST_SAMPLELINE);
+                System.arraycopy(in, inOffsets[linenr] + chunk, sampleBuf, pos, len);
+                sampleLine[nSample] = pos;
+                sampleLen[nSample++] = len;
+                pos += len;
             }
         }
-        return samples;
+        return nSample;
     }
 
-
-
+    /** Another encoder for the same table. Encoders have no mutable state, so this only copies a reference. */
     FSSTEncoder duplicate() {
-        FSSTEncoder duplicate = new FSSTEncoder(this.symbolTable);
+        FSSTEncoder duplicate = new FSSTEncoder(this.table);
         return duplicate;
     }
 
-    int export(long buffer) {
-        // TODO: Incomplete
-        // In ->version there is a versionnr, but we hide also
-        // suffixLim/terminator/nSymbols there.
-        // This is sufficient in principle to *reconstruct* a fsst_encoder_t from a
-        // fsst_decoder_t
-        // (such functionality could be useful to append compressed data to an existing
-        // block).
+    /**
+     * Serialize the symbol table into buf (at most FSST_MAXHEADER bytes), in the format of fsst_export() in
+     * libfsst: a version word, the zeroTerminated byte, the length histogram and the used bytes of the symbols.
+     *
+     * @return the number of bytes written
+     */
+    public int export(MemorySegment buf, long offset) {
+        // In ->version there is a versionnr, but we hide also suffixLim/terminator/nSymbols there.
+        // This is sufficient in principle to *reconstruct* a fsst_encoder_t from a fsst_decoder_t
+        // (such functionality could be useful to append compressed data to an existing block).
         //
-        // However, the hash function in the encoder hash table is endian-sensitive, and
-        // given its
-        // 'lossy perfect' hashing scheme is *unable* to contain other-endian-produced
-        // symbol tables.
+        // However, the hash function in the encoder hash table is endian-sensitive, and given its
+        // 'lossy perfect' hashing scheme is *unable* to contain other-endian-produced symbol tables.
         // Doing a endian-conversion during hashing will be slow and self-defeating.
         //
-        // Overall, we could support reconstructing an encoder for incremental
-        // compression, but
+        // Overall, we could support reconstructing an encoder for incremental compression, but
         // should enforce equal-endianness. Bit of a bummer. Not going there now.
         //
         // The version field is now there just for future-proofness, but not used yet
 
-        // version allows keeping track of fsst versions, track endianness, and encoder
-        // reconstruction
-        Encoder e = new Encoder();
+        // version allows keeping track of fsst versions, track endianness, and encoder reconstruction
         long version = (FSST_VERSION << 32) | // version is 24 bits, most significant byte is 0
-                (((long) e.symbolTable.suffixLim) << 24) |
-                (((long) e.symbolTable.terminator) << 16) |
-                (((long) e.symbolTable.nSymbols) << 8) |
+                (((long) table.suffixLim) << 24) |
+                (((long) table.terminator) << 16) |
+                (((long) table.nSymbols) << 8) |
                 FSST_ENDIAN_MARKER; // least significant byte is nonzero
-        buffer = version;
-        return 0;
+
+        // little endian, as written by libfsst on the platforms it runs on
+        buf.set(Utils.JAVA_LONG_LE, offset, version);
+        buf.set(ValueLayout.JAVA_BYTE, offset + 8, (byte) (table.zeroTerminated ? 1 : 0));
+        for (int i = 0; i < 8; i++)
+            buf.set(ValueLayout.JAVA_BYTE, offset + 9 + i, (byte) table.lenHisto[i]);
+        long pos = offset + 17;
+
+        // emit only the used bytes of the symbols
+        for (int i = table.zeroTerminated ? 1 : 0; i < table.nSymbols; i++)
+            for (int j = 0; j < table.symbolLens[i]; j++)
+                buf.set(ValueLayout.JAVA_BYTE, pos++, (byte) (table.symbolValues[i] >>> (8 * j)));
+
+        return (int) (pos - offset); // length of what was serialized
     }
 
-    // Inline methods in C++ can be made private in Java if they're only used within
-    // the class
-    private long _compressAuto(long nlines, long[] lenIn, byte[][] strIn, long size, byte[] output,
-            long[] lenOut, byte[][] strOut, int simd) {
-        boolean avoidBranch = false, noSuffixOpt = false;
+    /** Like {@link #export(MemorySegment, long)}, into buf[offset..]. */
+    public int export(byte[] buf, int offset) {
+        return export(MemorySegment.ofArray(buf), offset);
+    }
+
+    /** A decoder for the symbol table of this encoder (through export and import, like fsst_decoder()). */
+    public FSSTDecoder decoder() {
+        byte[] buf = new byte[FSST_MAXHEADER];
+        int n = export(buf, 0);
+        FSSTDecoder decoder = new FSSTDecoder();
+        int m = decoder.import_from_buffer(buf, 0);
+        assert n == m;
+        return decoder;
+    }
 
-        if (100 * this.symbolTable.lenHisto[1] > 65 * this.symbolTable.nSymbols
-                && 100 * this.symbolTable.suffixLim > 95 * this.symbolTable.lenHisto[1]) {
-            noSuffixOpt = true;
-        } else if ((this.symbolTable.lenHisto[0] > 24 && this.symbolTable.lenHisto[0] < 92) &&
-                (this.symbolTable.lenHisto[0] < 43 || this.symbolTable.lenHisto[6] + this.symbolTable.lenHisto[7] < 29)
+    /** The counters of the table of this encoder, shared by all its encoders; null unless -Dfsst.metrics=true. */
+    public FSSTMetrics metrics() {
+        return table.metrics;
+    }
+
+    /** How this encoder finds the longest symbol at each position, see {@link MatchEngine}. */
+    public MatchEngine engine() {
+        return table.engine();
+    }
+
+    /**
+     * An encoder for the same symbols that compresses with the given engine (this encoder if it already does). The
+     * codes of a table trained by FSST are the same with either engine; the other one only differs in speed.
+     */
+    public FSSTEncoder withEngine(MatchEngine engine) {
+        return engine == engine() ? this : new FSSTEncoder(table.withEngine(engine));
+    }
+
+    // adaptive choosing of scalar compression method based on symbol length histogram
+    boolean chooseNoSuffixOpt() {
+        return 100 * this.table.lenHisto[1] > 65 * this.table.nSymbols
+                && 100 * this.table.suffixLim > 95 * this.table.lenHisto[1];
+    }
+
+    boolean chooseAvoidBranch() {
+        return !chooseNoSuffixOpt() &&
+                (this.table.lenHisto[0] > 24 && this.table.lenHisto[0] < 92) &&
+                (this.table.lenHisto[0] < 43 || this.table.lenHisto[6] + this.table.lenHisto[7] < 29)
                 &&
-                (this.symbolTable.lenHisto[0] < 72 || this.symbolTable.lenHisto[2] < 72)) {
-            avoidBranch = true;
+                (this.table.lenHisto[0] < 72 || this.table.lenHisto[2] < 72);
+    }
+
+    /**
+     * The variant of the scalar kernel this encoder compresses with, and why. It is the lenHisto heuristic until
+     * {@link #probeVariant(int, byte[], int[])} has timed the variants on strings of the table. The choice is kept
+     * in the table, so all encoders of a table share it.
+     */
+    public CompressionVariant.Choice variant() {
+        CompressionVariant.Choice choice = table.variant;
+        if (choice == null)
+            table.variant = choice = heuristicVariant();
+        return choice;
+    }
+
+    private CompressionVariant.Choice heuristicVariant() {
+        if (chooseNoSuffixOpt())
+            return new CompressionVariant.Choice(CompressionVariant.NO_SUFFIX_OPT, String.format(
+                    "heuristic: %d of %d symbols have 2 bytes, %d of those are no prefix of a longer symbol",
+                    table.lenHisto[1], table.nSymbols, table.suffixLim), false);
+        return new CompressionVariant.Choice(
+                chooseAvoidBranch() ? CompressionVariant.AVOID_BRANCH : CompressionVariant.DEFAULT,
+                "heuristic: symbols per length " + Arrays.toString(table.lenHisto), false);
+    }
+
+    /**
+     * Time every variant on the first 16KB of a batch of strings, and make the fastest the variant of the table.
+     * The rounds are interleaved and the best time of each variant counts, but the probe takes well under a
+     * millisecond, so on a cold JVM it is only as good as the code the JIT has produced so far. A batch of less than
+     * 4KB (such as the constant of a predicate) is too small to time: it is not probed, and the table keeps its
+     * choice.
+     *
+     * @return the new choice, whose reason lists the best time per input byte of each variant; or the current one if
+     *         the batch is too small
+     */
+    public CompressionVariant.Choice probeVariant(int nlines, byte[] in, int[] inOffsets) {
+        int n = 0;
+        while (n < nlines && inOffsets[n + 1] - inOffsets[0] <= PROBE_BYTES)
+            n++;
+        int[] offsets = inOffsets;
+        if (n == 0 && nlines > 0) { // the first string is larger than the probe: time its start
+            offsets = new int[] { inOffsets[0], inOffsets[0] + PROBE_BYTES };
+            n = 1;
+        }
+        int bytes = offsets[n] - offsets[0];
+        if (bytes < PROBE_MIN_BYTES)
+            return variant();
+
+        byte[] out = new byte[2 * bytes + 7 * (n + bytes / 511 + 1)];
+        int[] outOffsets = new int[n + 1];
+        CompressionVariant[] variants = CompressionVariant.values();
+        long[] best = new long[variants.length];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int round = 0; round < PROBE_ROUNDS; round++) {
+            for (int v = 0; v < variants.length; v++) {
+                long start = System.nanoTime();
+                compressBulk(table, n, in, offsets, out, outOffsets, variants[v].noSuffixOpt, variants[v].avoidBranch);
+                best[v] = Math.min(best[v], System.nanoTime() - start);
+            }
         }
+        int fastest = 0;
+        StringBuilder reason = new StringBuilder("probe of ").append(bytes).append(" bytes:");
+        for (int v = 0; v < variants.length; v++) {
+            if (best[v] < best[fastest])
+                fastest = v;
+            reason.append(v == 0 ? " " : ", ").append(variants[v])
+                    .append(String.format(" %.2f ns/B", (double) best[v] / bytes));
+        }
+        CompressionVariant.Choice choice = new CompressionVariant.Choice(variants[fastest], reason.toString(), true);
+        table.variant = choice;
+        return choice;
+    }
 
-        return _compressImpl(nlines, lenIn, strIn, size, output, lenOut, strOut, noSuffixOpt, avoidBranch, simd);
+    /**
+     * Like {@link #probeVariant(int, byte[], int[])}, for strings off-heap. The probe slice is copied to the heap
+     * and timed there: the variants branch the same way on both.
+     */
+    public CompressionVariant.Choice probeVariant(int nlines, MemorySegment in, long[] inOffsets) {
+        long start = inOffsets[0];
+        int n = 0;
+        while (n < nlines && inOffsets[n + 1] - start <= PROBE_BYTES)
+            n++;
+        long end = n > 0 || nlines == 0 ? inOffsets[n] : start + PROBE_BYTES;
+        byte[] slice = in.asSlice(start, end - start).toArray(ValueLayout.JAVA_BYTE);
+        int[] offsets = new int[Math.max(n, 1) + 1];
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] = (int) ((n > 0 ? inOffsets[i] : end) - start);
+        return probeVariant(offsets.length - 1, slice, offsets);
+    }
+
+    private CompressionVariant.Choice probeVariant(int nlines, long[] lenIn, byte[][] strIn) {
+        byte[] slice = new byte[PROBE_BYTES];
+        int[] offsets = new int[Math.min(nlines, PROBE_BYTES) + 1];
+        int n = 0;
+        while (n < offsets.length - 1 && offsets[n] + lenIn[n] <= PROBE_BYTES) {
+            System.arraycopy(strIn[n], 0, slice, offsets[n], (int) lenIn[n]);
+            offsets[n + 1] = offsets[n] + (int) lenIn[n];
+            n++;
+        }
+        if (n == 0 && nlines > 0) {
+            System.arraycopy(strIn[0], 0, slice, 0, PROBE_BYTES);
+            offsets[++n] = PROBE_BYTES;
+        }
+        return probeVariant(n, slice, offsets);
+    }
+
+    // the variant of a batch: the choice of the table, probed on this batch when that is asked for, not done yet,
+    // and the batch is large enough to time (the variants are ways of probing the hash table, with the bucket engine
+    // there is nothing to time)
+    private CompressionVariant batchVariant(int nlines, byte[] in, int[] inOffsets) {
+        boolean probe = ADAPTIVE_ENABLED && table.buckets == null && !variant().probed
+                && inOffsets[nlines] - inOffsets[0] >= PROBE_MIN_BYTES;
+        return (probe ? probeVariant(nlines, in, inOffsets) : variant()).variant;
+    }
+
+    private CompressionVariant batchVariant(int nlines, MemorySegment in, long[] inOffsets) {
+        boolean probe = ADAPTIVE_ENABLED && table.buckets == null && !variant().probed
+                && inOffsets[nlines] - inOffsets[0] >= PROBE_MIN_BYTES;
+        return (probe ? probeVariant(nlines, in, inOffsets) : variant()).variant;
+    }
+
+    private CompressionVariant batchVariant(int nlines, long[] lenIn, byte[][] strIn) {
+        boolean probe = ADAPTIVE_ENABLED && table.buckets == null && !variant().probed;
+        long bytes = 0;
+        for (int i = 0; probe && i < nlines && bytes < PROBE_MIN_BYTES; i++)
+            bytes += lenIn[i];
+        return (probe && bytes >= PROBE_MIN_BYTES ? probeVariant(nlines, lenIn, strIn) : variant()).variant;
+    }
+
+    // Inline methods in C++ can be made private in Java if they're only used within
+    // the class
+    private int _compressAuto(int nlines, long[] lenIn, byte[][] strIn, long size, byte[] output,
+            long[] lenOut, byte[][] strOut, int simd) {
+        CompressionVariant variant = batchVariant(nlines, lenIn, strIn);
+        return _compressImpl(nlines, lenIn, strIn, size, output, lenOut, strOut, variant.noSuffixOpt,
+                variant.avoidBranch, simd);
     }
 
-    private long _compressImpl(long nlines, long[] lenIn, byte[][] strIn, long size, byte[] output, long[] lenOut,
+    private int _compressImpl(int nlines, long[] lenIn, byte[][] strIn, long size, byte[] output, long[] lenOut,
             byte[][] strOut, boolean noSuffixOpt, boolean avoidBranch, int simd) {
-        return compressBulk(this.symbolTable, nlines, lenIn, strIn, size, output, lenOut, strOut, noSuffixOpt,
+        return compressBulk(this.table, nlines, lenIn, strIn, size, output, lenOut, strOut, noSuffixOpt,
                 avoidBranch);
+    }
+
+    private int _compressAuto(int nlines, byte[] in, int[] inOffsets, byte[] out, int[] outOffsets, int simd) {
+        CompressionVariant variant = batchVariant(nlines, in, inOffsets);
+        return _compressImpl(nlines, in, inOffsets, out, outOffsets, variant.noSuffixOpt, variant.avoidBranch, simd);
+    }
+
+    private int _compressImpl(int nlines, byte[] in, int[] inOffsets, byte[] out, int[] outOffsets,
+            boolean noSuffixOpt, boolean avoidBranch, int simd) {
+        return compressBulk(this.table, nlines, in, inOffsets, out, outOffsets, noSuffixOpt, avoidBranch);
+    }
 
+    private int _compressAuto(int nlines, MemorySegment in, long[] inOffsets, MemorySegment out, long[] outOffsets,
+            int simd) {
+        CompressionVariant variant = batchVariant(nlines, in, inOffsets);
+        return _compressImpl(nlines, in, inOffsets, out, outOffsets, variant.noSuffixOpt, variant.avoidBranch, simd);
     }
 
-    public long compressBulk(SymbolTable symbolTable2, long nlines, long[] lenIn, byte[][] strIn, long size,
-            byte[] output, long[] lenOut, byte[][] strOut, boolean noSuffixOpt, boolean avoidBranch) {
-        return 0;
+    private int _compressImpl(int nlines, MemorySegment in, long[] inOffsets, MemorySegment out, long[] outOffsets,
+            boolean noSuffixOpt, boolean avoidBranch, int simd) {
+        return compressBulk(this.table, nlines, in, inOffsets, out, outOffsets, noSuffixOpt, avoidBranch);
     }
 
+    /**
+     * Compress a batch of strings. The output buffer must be large; at least "conservative space"
+     * (7+2*inputlength) for the first string for something to happen.
+     * 
+     * Java has no pointers into {@code output}, so {@code strOut} is not filled in: the compressed strings are
+     * stored one after the other, string i starts at the sum of {@code lenOut[0..i)}.
+     *
+     * @return the number of compressed strings (<=nlines) that fit the output buffer.
+     */
     public long fsst_compress(
             int nlines,
             long[] lenIn,
@@ -182,90 +492,281 @@ public class FSSTEncoder {
         }
 
         boolean simd = totLen > nlines * 12 && (nlines > 64 || totLen > (long) 1 << 15);
-        return this._compressAuto(nlines, lenIn, strIn, size, output, lenOut, strOut, 3 * (simd ? 1 : 0));
+        FSSTMetrics.CompressEvent event = FSSTMetrics.compressEvent();
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        int done = this._compressAuto(nlines, lenIn, strIn, size, output, lenOut, strOut, 3 * (simd ? 1 : 0));
+        if (FSSTMetrics.ENABLED || event != null) {
+            long bytesIn = 0, bytesOut = 0;
+            for (int i = 0; i < done; i++) {
+                bytesIn += lenIn[i];
+                bytesOut += lenOut[i];
+            }
+            if (FSSTMetrics.ENABLED)
+                table.metrics.compressed(done, bytesIn, output, 0, (int) bytesOut, table.symbolLens,
+                        System.nanoTime() - start);
+            if (event != null)
+                event.end(done, bytesIn, bytesOut, table);
+        }
+        return done;
     }
 
-    public static int compressBulk(SymbolTable symbolTable, int nlines, int[] lenIn, byte[][] strIn, int size,
-            byte[] out, int[] lenOut, byte[][] strOut, boolean noSuffixOpt, boolean avoidBranch) {
-        byte[] cur = null;
-        byte[] end = null;
-        byte[] lim = new byte[out.length + size];
+    /**
+     * Compress a batch of strings stored back to back in one arena, without copying them.
+     *
+     * @param nlines     number of strings in the batch
+     * @param in         input arena, string i is {@code in[inOffsets[i], inOffsets[i+1])}
+     * @param inOffsets  nlines+1 string offsets into {@code in}
+     * @param out        output arena, compressed string i is written to
+     *                   {@code out[outOffsets[i], outOffsets[i+1])}
+     * @param outOffsets nlines+1 entries; {@code outOffsets[0]} is the position in {@code out} to start writing
+     *                   at, the other entries are filled in
+     * @return the number of compressed strings (<=nlines) that fit the output buffer.
+     */
+    public int fsst_compress(int nlines, byte[] in, int[] inOffsets, byte[] out, int[] outOffsets) {
+        long totLen = inOffsets[nlines] - inOffsets[0];
+        boolean simd = totLen > nlines * 12L && (nlines > 64 || totLen > (long) 1 << 15);
+        FSSTMetrics.CompressEvent event = FSSTMetrics.compressEvent();
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        int done = this._compressAuto(nlines, in, inOffsets, out, outOffsets, 3 * (simd ? 1 : 0));
+        if (FSSTMetrics.ENABLED || event != null) {
+            long bytesIn = inOffsets[done] - inOffsets[0], bytesOut = outOffsets[done] - outOffsets[0];
+            if (FSSTMetrics.ENABLED)
+                table.metrics.compressed(done, bytesIn, out, outOffsets[0], outOffsets[done], table.symbolLens,
+                        System.nanoTime() - start);
+            if (event != null)
+                event.end(done, bytesIn, bytesOut, table);
+        }
+        return done;
+    }
 
-        int curLine;
-        byte[] buf = new byte[512 + 8];
+    /**
+     * Compress a batch of strings that live off-heap (e.g. in a page buffer), straight into an off-heap output.
+     * Same contract as {@link #fsst_compress(int, byte[], int[], byte[], int[])}, with segment offsets.
+     */
+    public int fsst_compress(int nlines, MemorySegment in, long[] inOffsets, MemorySegment out, long[] outOffsets) {
+        long totLen = inOffsets[nlines] - inOffsets[0];
+        boolean simd = totLen > nlines * 12L && (nlines > 64 || totLen > (long) 1 << 15);
+        FSSTMetrics.CompressEvent event = FSSTMetrics.compressEvent();
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        int done = this._compressAuto(nlines, in, inOffsets, out, outOffsets, 3 * (simd ? 1 : 0));
+        if (FSSTMetrics.ENABLED || event != null) {
+            long bytesIn = inOffsets[done] - inOffsets[0], bytesOut = outOffsets[done] - outOffsets[0];
+            if (FSSTMetrics.ENABLED)
+                table.metrics.compressed(done, bytesIn, out, outOffsets[0], outOffsets[done], table.symbolLens,
+                        System.nanoTime() - start);
+            if (event != null)
+                event.end(done, bytesIn, bytesOut, table);
+        }
+        return done;
+    }
 
-        int outPointer = 0;
+    public static int compressBulk(CompactSymbolTable table, int nlines, long[] lenIn, byte[][] strIn, long size,
+            byte[] out, long[] lenOut, byte[][] strOut, boolean noSuffixOpt, boolean avoidBranch) {
+        int lim = (int) Math.min(size, out.length);
+        int curLine, outPos = 0;
 
         for (curLine = 0; curLine < nlines; curLine++) {
-            int chunk, curOff = 0;
-            strOut[curLine] = out;
+            int start = outPos;
+            outPos = compressString(table, strIn[curLine], 0, (int) lenIn[curLine], out, outPos, lim,
+                    noSuffixOpt, avoidBranch);
+            if (outPos < 0) {
+                return curLine; // out of memory
+            }
+            lenOut[curLine] = outPos - start;
+        }
+        return curLine;
+    }
 
-            do {
-                cur = Arrays.copyOfRange(strIn[curLine], curOff, strIn[curLine].length);
-                chunk = lenIn[curLine] - curOff;
+    /**
+     * Compress a batch of strings stored back to back in one arena. The strings are read in place: there are no
+     * intermediate copies and no allocation per string or per code.
+     *
+     * @see #fsst_compress(int, byte[], int[], byte[], int[])
+     */
+    public static int compressBulk(CompactSymbolTable table, int nlines, byte[] in, int[] inOffsets, byte[] out,
+            int[] outOffsets, boolean noSuffixOpt, boolean avoidBranch) {
+        int curLine, outPos = outOffsets[0];
 
-                if (chunk > 511) {
-                    chunk = 511;
-                }
+        for (curLine = 0; curLine < nlines; curLine++) {
+            outPos = compressString(table, in, inOffsets[curLine], inOffsets[curLine + 1], out, outPos,
+                    out.length, noSuffixOpt, avoidBranch);
+            if (outPos < 0) {
+                return curLine; // out of memory
+            }
+            outOffsets[curLine + 1] = outPos;
+        }
+        return curLine;
+    }
 
-                if (2 * chunk + 7 > lim.length - outPointer) {
-                    return curLine;
-                }
+    /**
+     * Off-heap variant of
+     * {@link #compressBulk(CompactSymbolTable, int, byte[], int[], byte[], int[], boolean, boolean)}. Input words are read from the segment with unaligned 8-byte loads, nothing is copied to the heap.
+     */
+    public static int compressBulk(CompactSymbolTable table, int nlines, MemorySegment in, long[] inOffsets,
+            MemorySegment out, long[] outOffsets, boolean noSuffixOpt, boolean avoidBranch) {
+        int curLine;
+        long outPos = outOffsets[0];
+
+        for (curLine = 0; curLine < nlines; curLine++) {
+            outPos = compressString(table, in, inOffsets[curLine], inOffsets[curLine + 1], out, outPos,
+                    out.byteSize(), noSuffixOpt, avoidBranch);
+            if (outPos < 0) {
+                return curLine; // out of memory
+            }
+            outOffsets[curLine + 1] = outPos;
+        }
+        return curLine;
+    }
+
+    // compress the string in[cur,lineEnd) to out[outPos..lim), returns the new output position or -1 if it does
+    // not fit
+    static int compressString(CompactSymbolTable table, byte[] in, int cur, int lineEnd, byte[] out,
+            int outPos, int lim, boolean noSuffixOpt, boolean avoidBranch) {
+        int chunk;
+        do {
+            chunk = lineEnd - cur;
+            if (chunk > 511) {
+                chunk = 511; // we need to compress in chunks of 511 in order to be byte-compatible with
+                             // simd-compressed FSST
+            }
+            if (2 * chunk + 7 > lim - outPos) {
+                return -1;
+            }
+            if (table.buckets != null) {
+                outPos = table.buckets.compress(in, cur, cur + chunk, out, outPos, table.terminator);
+                continue; // the variants are kinds of hash probes
+            }
 
-                System.arraycopy(cur, 0, buf, 0, chunk);
-                buf[chunk] = (byte) symbolTable.terminator;
-                end = Arrays.copyOfRange(buf, 0, chunk);
+            // based on symboltable stats, choose a variant that is nice to the branch predictor
+            if (noSuffixOpt) {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, true, false);
+            } else if (avoidBranch) {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, false, true);
+            } else {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, false, false);
+            }
+        } while ((cur += chunk) < lineEnd);
+        return outPos;
+    }
 
-                // Java doesn't have lambdas like C++ does (not in the same way), so we'll call
-                // a function instead.
-                if (noSuffixOpt) {
-                    outPointer = compressVariant(cur, end, out, outPointer, symbolTable, true, false);
+    // The C++ code copies each chunk into a 520-byte buffer to append the terminator byte after it. Here the chunk
+    // is read in place: full 8-byte words while they fit in the chunk, and the last few bytes with the terminator
+    // patched in (see Utils.fsst_terminated_load), which yields exactly the same words.
+    private static int compressVariant(CompactSymbolTable table, byte[] in, int cur, int end, byte[] out,
+            int outPos, boolean noSuffixOpt, boolean avoidBranch) {
+        final char[] shortCodes = table.shortCodes;
+        final long[] hashValues = table.hashValues;
+        final int[] hashIcl = table.hashIcl;
+        final int hashMask = hashIcl.length - 1;
+        final int suffixLim = table.suffixLim;
+        final int terminator = table.terminator;
+        final int byteLim = table.byteLim;
+
+        while (cur < end) {
+            long word = end - cur >= 8 ? Utils.fsst_unaligned_load(in, cur)
+                    : Utils.fsst_terminated_load(in, cur, end, terminator);
+            int code = shortCodes[(int) (word & 0xFFFF)];
+            if (noSuffixOpt && (code & 0xFF) < suffixLim) {
+                // 2 byte code without having to worry about longer matches
+                out[outPos++] = (byte) code;
+                cur += 2;
+            } else {
+                long pos = word & 0xFFFFFF;
+                int idx = (int) (Symbol.FSST_HASH(pos) & hashMask);
+                int icl = hashIcl[idx];
+                out[outPos + 1] = (byte) word; // speculatively write out escaped byte
+                word &= (0xFFFFFFFFFFFFFFFFL >>> icl);
+                if (icl != CompactSymbolTable.FSST_ICL_FREE && hashValues[idx] == word) {
+                    out[outPos++] = (byte) (icl >>> 16);
+                    cur += icl >>> 28;
                 } else if (avoidBranch) {
-                    outPointer = compressVariant(cur, end, out, outPointer, symbolTable, false, true);
+                    // could be a 2-byte or 1-byte code, or miss
+                    // handle everything with predication
+                    out[outPos] = (byte) code;
+                    outPos += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
+                    cur += (code >> Symbol.FSST_LEN_BITS);
+                } else if ((code & 0xFF) < byteLim) {
+                    // 2 byte code after checking there is no longer pattern
+                    out[outPos++] = (byte) code;
+                    cur += 2;
                 } else {
-                    outPointer = compressVariant(cur, end, out, outPointer, symbolTable, false, false);
+                    // 1 byte code or miss.
+                    out[outPos] = (byte) code;
+                    outPos += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
+                    cur++;
                 }
-
-            } while ((curOff += chunk) < lenIn[curLine]);
-            lenOut[curLine] = outPointer;
+            }
         }
+        return outPos;
+    }
 
-        return curLine;
+    private static long compressString(CompactSymbolTable table, MemorySegment in, long cur, long lineEnd,
+            MemorySegment out, long outPos, long lim, boolean noSuffixOpt, boolean avoidBranch) {
+        long chunk;
+        do {
+            chunk = lineEnd - cur;
+            if (chunk > 511) {
+                chunk = 511;
+            }
+            if (2 * chunk + 7 > lim - outPos) {
+                return -1;
+            }
+            if (table.buckets != null) {
+                outPos = table.buckets.compress(in, cur, cur + chunk, out, outPos, table.terminator);
+                continue; // the variants are kinds of hash probes
+            }
+            if (noSuffixOpt) {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, true, false);
+            } else if (avoidBranch) {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, false, true);
+            } else {
+                outPos = compressVariant(table, in, cur, cur + chunk, out, outPos, false, false);
+            }
+        } while ((cur += chunk) < lineEnd);
+        return outPos;
     }
 
-    private static int compressVariant(byte[] cur, byte[] end, byte[] out, int outPointer, SymbolTable symbolTable,
-            boolean noSuffixOpt, boolean avoidBranch) {
-        byte byteLim = (byte) (symbolTable.nSymbols + (symbolTable.zeroTerminated ? 1 : 0) - symbolTable.lenHisto[0]);
-        while (cur.length < end.length) {
-            long word = Utils.fsst_unaligned_load(cur, 0);
-            int code = symbolTable.shortCodes[(int) (word & 0xFFFF)];
-            if (noSuffixOpt && (byte) code < symbolTable.suffixLim) {
-                out[outPointer++] = (byte) code;
-                cur = Arrays.copyOfRange(cur, 2, cur.length);
+    private static long compressVariant(CompactSymbolTable table, MemorySegment in, long cur, long end,
+            MemorySegment out, long outPos, boolean noSuffixOpt, boolean avoidBranch) {
+        final char[] shortCodes = table.shortCodes;
+        final long[] hashValues = table.hashValues;
+        final int[] hashIcl = table.hashIcl;
+        final int hashMask = hashIcl.length - 1;
+        final int suffixLim = table.suffixLim;
+        final int terminator = table.terminator;
+        final int byteLim = table.byteLim;
+
+        while (cur < end) {
+            long word = end - cur >= 8 ? Utils.fsst_unaligned_load(in, cur)
+                    : Utils.fsst_terminated_load(in, cur, end, terminator);
+            int code = shortCodes[(int) (word & 0xFFFF)];
+            if (noSuffixOpt && (code & 0xFF) < suffixLim) {
+                out.set(ValueLayout.JAVA_BYTE, outPos++, (byte) code);
+                cur += 2;
             } else {
-                int pos = (int) (word & 0xFFFFFF);
-                int idx = (int) (Symbol.FSST_HASH(pos) & (symbolTable.hashTabSize - 1));
-                Symbol s = symbolTable.hashTab[idx];
-                out[outPointer + 1] = (byte) word;
-                word &= (0xFFFFFFFFFFFFFFFFL >> (byte) s.icl);
-                if (s.icl < QSymbol.FSST_ICL_FREE && s.value == word) {
-                    out[outPointer++] = (byte) s.code();
-                    cur = Arrays.copyOfRange(cur, s.length(), cur.length);
+                long pos = word & 0xFFFFFF;
+                int idx = (int) (Symbol.FSST_HASH(pos) & hashMask);
+                int icl = hashIcl[idx];
+                out.set(ValueLayout.JAVA_BYTE, outPos + 1, (byte) word); // speculatively write out escaped byte
+                word &= (0xFFFFFFFFFFFFFFFFL >>> icl);
+                if (icl != CompactSymbolTable.FSST_ICL_FREE && hashValues[idx] == word) {
+                    out.set(ValueLayout.JAVA_BYTE, outPos++, (byte) (icl >>> 16));
+                    cur += icl >>> 28;
                 } else if (avoidBranch) {
-                    out[outPointer] = (byte) code;
-                    outPointer += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
-                    cur = Arrays.copyOfRange(cur, code >> Symbol.FSST_LEN_BITS, cur.length);
-                } else if ((byte) code < byteLim) {
-                    out[outPointer++] = (byte) code;
-                    cur = Arrays.copyOfRange(cur, 2, cur.length);
+                    out.set(ValueLayout.JAVA_BYTE, outPos, (byte) code);
+                    outPos += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
+                    cur += (code >> Symbol.FSST_LEN_BITS);
+                } else if ((code & 0xFF) < byteLim) {
+                    out.set(ValueLayout.JAVA_BYTE, outPos++, (byte) code);
+                    cur += 2;
                 } else {
-                    out[outPointer] = (byte) code;
-                    outPointer += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
-                    cur = Arrays.copyOfRange(cur, 1, cur.length);
+                    out.set(ValueLayout.JAVA_BYTE, outPos, (byte) code);
+                    outPos += 1 + ((code & Symbol.FSST_CODE_BASE) >> 8);
+                    cur++;
                 }
             }
         }
-        return outPointer;
+        return outPos;
     }
 
 }
@@ -0,0 +1,229 @@
+package fsst;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compresses newline-delimited files of any size on all cores. The input is memory-mapped and split into chunks at
+ * line boundaries; one table is trained from lines sampled across the whole file, and the chunks are compressed in
+ * parallel (every line, with its newline, is a string) by an encoder that all workers share. Chunks are compressed in
+ * waves of a few per worker, and each wave is copied in order into its mapped region of the output file, so memory
+ * use does not depend on the file size.
+ *
+ * Decoding a chunk does not need the line boundaries (the concatenated codes decode to the concatenated lines), so a
+ * compressed chunk is only its decoded size followed by its codes. Layout (little endian):
+ * <pre>
+ * exported symbol table
+ * chunks: u64 decodedSize, codes
+ * u64 chunkEnds[nChunks]         file offset of the end of each chunk
+ * u64 nChunks
+ * u64 MAGIC
+ * </pre>
+ * Decompression reads the directory at the end, maps the output at its final size and decodes every chunk straight
+ * into its own slice of the output, in parallel.
+ */
+public final class FSSTFile {
+    static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    static final long MAGIC = 0x454C4946_54535346L; // "FSSTFILE"
+    static final int SAMPLE_WINDOWS = 64; // places in the file the training lines are taken from
+
+    private FSSTFile() {
+    }
+
+    /** Compress input to output in the common pool. */
+    public static long compress(Path input, Path output) throws IOException {
+        return compress(input, output, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Compress the lines of input to output. The table is trained and the chunks are compressed in pool.
+     *
+     * @param chunkSize bytes of input per task (chunks end at a line boundary, so they are a line longer at most)
+     * @return byte-size of output
+     */
+    public static long compress(Path input, Path output, ForkJoinPool pool, int chunkSize) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel outChannel = FileChannel.open(output, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Arena arena = Arena.ofShared()) {
+            MemorySegment in = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size(), arena);
+            long[] bounds = chunkBounds(in, chunkSize);
+            int nChunks = bounds.length - 1;
+            FSSTEncoder encoder = train(in, pool);
+
+            byte[] header = new byte[FSSTEncoder.FSST_MAXHEADER];
+            int headerSize = encoder.export(header, 0);
+            outChannel.write(ByteBuffer.wrap(header, 0, headerSize));
+            long pos = headerSize;
+            long[] chunkEnds = new long[nChunks];
+
+            int wave = 2 * pool.getParallelism();
+            for (int first = 0; first < nChunks; first += wave) {
+                int last = Math.min(first + wave, nChunks);
+                try (Arena waveArena = Arena.ofShared()) {
+                    // compress the chunks of the wave, each into its own buffer
+                    MemorySegment[] compressed = new MemorySegment[last - first];
+                    ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[last - first];
+                    for (int c = first; c < last; c++) {
+                        int i = c - first;
+                        long from = bounds[c], to = bounds[c + 1];
+                        tasks[i] = pool.submit(() -> {
+                            compressed[i] = compressChunk(encoder, in, from, to, waveArena);
+                        });
+                    }
+                    long waveSize = 0;
+                    for (int i = 0; i < tasks.length; i++) {
+                        tasks[i].join();
+                        waveSize += compressed[i].byteSize();
+                        chunkEnds[first + i] = pos + waveSize;
+                    }
+
+                    // and copy them in order into the output
+                    MemorySegment out = outChannel.map(FileChannel.MapMode.READ_WRITE, pos, waveSize, waveArena);
+                    for (int i = 0; i < tasks.length; i++) {
+                        long start = chunkEnds[first + i] - compressed[i].byteSize() - pos;
+                        MemorySegment chunk = compressed[i];
+                        tasks[i] = pool.submit(() -> MemorySegment.copy(chunk, 0, out, start, chunk.byteSize()));
+                    }
+                    for (ForkJoinTask<?> task : tasks)
+                        task.join();
+                    pos += waveSize;
+                }
+            }
+
+            ByteBuffer footer = ByteBuffer.allocate(8 * nChunks + 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (long end : chunkEnds)
+                footer.putLong(end);
+            footer.putLong(nChunks).putLong(MAGIC).flip();
+            while (footer.hasRemaining())
+                pos += outChannel.write(footer, pos);
+            return pos;
+        }
+    }
+
+    // chunk c of in is [bounds[c], bounds[c+1]), every chunk but the last ends just after a newline
+    static long[] chunkBounds(MemorySegment in, int chunkSize) {
+        long size = in.byteSize();
+        long[] bounds = new long[(int) (size / chunkSize) + 2];
+        int n = 0;
+        for (long pos = 0; pos < size; ) {
+            long end = Math.min(pos + chunkSize, size);
+            while (end < size && in.get(ValueLayout.JAVA_BYTE, end - 1) != '\n')
+                end++;
+            bounds[++n] = pos = end;
+        }
+        return Arrays.copyOf(bounds, n + 1);
+    }
+
+    // train in pool on whole lines from SAMPLE_WINDOWS evenly spaced places in the file
+    static FSSTEncoder train(MemorySegment in, ForkJoinPool pool) {
+        long size = in.byteSize();
+        int window = (int) (Symbol.FSST_SAMPLEMAXSZ / SAMPLE_WINDOWS) * 4; // the encoder samples again from these
+        byte[] sample = new byte[SAMPLE_WINDOWS * window];
+        int[] offsets = new int[sample.length + 1];
+        int n = 0, len = 0;
+        for (int w = 0; w < SAMPLE_WINDOWS; w++) {
+            long pos = size * w / SAMPLE_WINDOWS;
+            while (pos > 0 && pos < size && in.get(ValueLayout.JAVA_BYTE, pos - 1) != '\n')
+                pos++; // start of the next line
+            for (long end = Math.min(pos + window, size); pos < end; ) {
+                long lineEnd = pos;
+                while (lineEnd < end && in.get(ValueLayout.JAVA_BYTE, lineEnd++) != '\n')
+                    ;
+                MemorySegment.copy(in, ValueLayout.JAVA_BYTE, pos, sample, len, (int) (lineEnd - pos));
+                len += (int) (lineEnd - pos);
+                offsets[++n] = len;
+                pos = lineEnd;
+            }
+        }
+        return new FSSTEncoder(pool, n, sample, offsets, 0);
+    }
+
+    // compress the lines of in[from, to) into a new segment: the decoded size, then the codes
+    static MemorySegment compressChunk(FSSTEncoder encoder, MemorySegment in, long from, long to, Arena arena) {
+        long[] lines = new long[1024];
+        int n = 0;
+        lines[0] = from;
+        for (long pos = from; pos < to; ) {
+            while (pos < to && in.get(ValueLayout.JAVA_BYTE, pos++) != '\n')
+                ;
+            if (++n == lines.length)
+                lines = Arrays.copyOf(lines, 2 * n);
+            lines[n] = pos;
+        }
+        MemorySegment buf = arena.allocate(8 + 7 + 2 * (to - from));
+        long[] outOffsets = new long[n + 1];
+        outOffsets[0] = 8;
+        if (encoder.fsst_compress(n, in, lines, buf, outOffsets) != n)
+            throw new IllegalStateException("chunk does not fit its buffer");
+        buf.set(Utils.JAVA_LONG_LE, 0, to - from);
+        return buf.asSlice(0, outOffsets[n]);
+    }
+
+    /** Decompress input to output in the common pool. */
+    public static long decompress(Path input, Path output) throws IOException {
+        return decompress(input, output, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decompress a file written by {@link #compress(Path, Path, ForkJoinPool, int)}.
+     *
+     * @return byte-size of output
+     * @throws IOException if input is not such a file
+     */
+    public static long decompress(Path input, Path output, ForkJoinPool pool) throws IOException {
+        try (FileChannel inChannel = FileChannel.open(input, StandardOpenOption.READ);
+                FileChannel outChannel = FileChannel.open(output, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                Arena arena = Arena.ofShared()) {
+            MemorySegment in = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size(), arena);
+            long size = in.byteSize();
+            FSSTDecoder decoder = new FSSTDecoder();
+            int headerSize = size < 16 ? 0 : decoder.import_from_buffer(in, 0);
+            if (headerSize == 0 || in.get(Utils.JAVA_LONG_LE, size - 8) != MAGIC)
+                throw new IOException("not a compressed file");
+            long nChunks = in.get(Utils.JAVA_LONG_LE, size - 16);
+            // bound nChunks by the room for its directory before multiplying, so that it cannot overflow
+            if (nChunks < 0 || nChunks > Integer.MAX_VALUE - 1 || nChunks > (size - 16 - headerSize) / 8)
+                throw new IOException("corrupt compressed file");
+            long directory = size - 16 - 8 * nChunks;
+            if (directory < headerSize)
+                throw new IOException("corrupt compressed file");
+
+            long[] chunkStarts = new long[(int) nChunks + 1];
+            long[] decodedStarts = new long[(int) nChunks + 1];
+            chunkStarts[0] = headerSize;
+            for (int c = 0; c < nChunks; c++) {
+                chunkStarts[c + 1] = in.get(Utils.JAVA_LONG_LE, directory + 8L * c);
+                if (chunkStarts[c + 1] < chunkStarts[c] + 8 || chunkStarts[c + 1] > directory)
+                    throw new IOException("corrupt compressed file");
+                decodedStarts[c + 1] = decodedStarts[c] + in.get(Utils.JAVA_LONG_LE, chunkStarts[c]);
+            }
+
+            long total = decodedStarts[(int) nChunks];
+            MemorySegment out = outChannel.map(FileChannel.MapMode.READ_WRITE, 0, total, arena);
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[(int) nChunks];
+            for (int c = 0; c < nChunks; c++) {
+                long codes = chunkStarts[c] + 8, codesLen = chunkStarts[c + 1] - codes;
+                MemorySegment slice = out.asSlice(decodedStarts[c], decodedStarts[c + 1] - decodedStarts[c]);
+                tasks[c] = pool.submit(() -> decoder.decompress(in, codes, codesLen, slice, 0) == slice.byteSize());
+            }
+            boolean valid = true;
+            for (ForkJoinTask<?> task : tasks)
+                valid &= (Boolean) task.join();
+            if (!valid)
+                throw new IOException("corrupt compressed file");
+            return total;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package fsst;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Decompresses a stream written by {@link FSSTOutputStream}. The compressed stream is read from the channel into a
+ * direct buffer; all complete records in the buffer are then decoded as a batch, straight from the buffer, into one
+ * output array that is reused for every batch. Memory use is constant: it does not depend on the length of the
+ * stream, only on the size of the largest record.
+ *
+ * The decoded records can be read as one stream of concatenated bytes (the InputStream methods), or one at a time
+ * with {@link #nextRecord()} / {@link #recordIterator()}. A record returned by those is a view of the output array
+ * that is only valid until the next call. The two ways of reading are best not mixed: nextRecord() returns the rest
+ * of a record that was partly read with read().
+ */
+public class FSSTInputStream extends InputStream {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    final FSSTDecoder decoder = new FSSTDecoder();
+    final ReadableByteChannel channel;
+    ByteBuffer buffer; // compressed stream, [pos, buffer.position()) is not yet decoded
+    MemorySegment in; // the whole buffer
+    int pos;
+    boolean eof;
+
+    byte[] out; // decoded records of the current batch, [outPos, outEnd) is not yet read
+    MemorySegment outSegment;
+    ByteBuffer view; // returned by nextRecord()
+    int outPos, outEnd;
+    int[] recordEnds = new int[64]; // record i of the batch is decoded to out[recordEnds[i-1], recordEnds[i])
+    int nRecords, record; // records in the batch, index of the record that outPos is in
+    long records; // number of records decoded
+    boolean open = true;
+
+    public FSSTInputStream(ReadableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FSSTInputStream(InputStream in) throws IOException {
+        this(Channels.newChannel(in), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Reads the symbol table at the start of the stream.
+     *
+     * @param bufferSize size of the direct buffer into which the compressed stream is read (it grows for records
+     *                   that are larger)
+     * @throws IOException if the stream does not start with a table of this FSST version
+     */
+    public FSSTInputStream(ReadableByteChannel channel, int bufferSize) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, FSSTEncoder.FSST_MAXHEADER));
+        this.in = MemorySegment.ofBuffer(buffer);
+        setOut(new byte[4 * buffer.capacity()]);
+        if (!fill(17) || !fill(FSSTDecoder.exportedSize(in, 0)) || (pos = decoder.import_from_buffer(in, 0)) == 0)
+            throw new IOException("not an FSST stream");
+    }
+
+    private void setOut(byte[] out) {
+        this.out = out;
+        this.outSegment = MemorySegment.ofArray(out);
+        this.view = ByteBuffer.wrap(out);
+    }
+
+    // read until at least n bytes from pos on are in the buffer, false if the stream ends first
+    private boolean fill(int n) throws IOException {
+        if (buffer.position() - pos >= n)
+            return true;
+        if (n > buffer.capacity()) { // a record larger than the buffer
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(n, 2 * buffer.capacity()));
+            buffer.flip().position(pos);
+            buffer = larger.put(buffer);
+            in = MemorySegment.ofBuffer(larger.duplicate().clear());
+        } else {
+            buffer.flip().position(pos);
+            buffer.compact();
+        }
+        pos = 0;
+        while (buffer.position() < n) {
+            if (eof || channel.read(buffer) < 0) {
+                eof = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // decode the complete records in the buffer (at least one if the stream has more), false at the end of the stream
+    private boolean decodeBatch() throws IOException {
+        outPos = outEnd = nRecords = record = 0;
+        while (true) {
+            // parse the LEB128 length of the next record
+            int len = 0, header = 0, available = buffer.position() - pos;
+            while (true) {
+                if (header == available) {
+                    if (nRecords > 0)
+                        return true; // decode what is in the buffer first
+                    if (!fill(header + 1)) {
+                        if (header == 0)
+                            return false;
+                        throw new EOFException("truncated record");
+                    }
+                    available = buffer.position() - pos;
+                }
+                int b = in.get(ValueLayout.JAVA_BYTE, pos + header);
+                if (header == 4 && (b & 0xFF) > 0x07) // a 5th byte only has room for bits 28-30 of a length
+                    throw new IOException("corrupt record length");
+                len |= (b & 0x7F) << (7 * header++);
+                if (b >= 0)
+                    break;
+            }
+            if (available < header + len) {
+                if (nRecords > 0)
+                    return true;
+                if (!fill(header + len))
+                    throw new EOFException("truncated record");
+            }
+
+            if (out.length - outEnd < 32 && nRecords > 0)
+                return true; // keep slack, so that a truncated decode does not touch the records before it
+            long decoded = decoder.decompress(in, pos + header, len, outSegment, outEnd);
+            if (decoded > out.length - outEnd) { // does not fit, decode it again in the next batch
+                if (nRecords > 0)
+                    return true;
+                setOut(new byte[(int) decoded + 32]);
+                decoded = decoder.decompress(in, pos + header, len, outSegment, outEnd);
+            }
+            pos += header + len;
+            outEnd += (int) decoded;
+            if (nRecords == recordEnds.length)
+                recordEnds = Arrays.copyOf(recordEnds, 2 * nRecords);
+            recordEnds[nRecords++] = outEnd;
+            records++;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        while (outPos == outEnd)
+            if (!decodeBatch())
+                return -1;
+        int b = out[outPos++] & 0xFF;
+        skipReadRecords();
+        return b;
+    }
+
+    /** Read decoded bytes, which are the records concatenated. */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        if (len == 0)
+            return 0;
+        while (outPos == outEnd)
+            if (!decodeBatch())
+                return -1;
+        int n = Math.min(len, outEnd - outPos);
+        System.arraycopy(out, outPos, b, off, n);
+        outPos += n;
+        skipReadRecords();
+        return n;
+    }
+
+    private void skipReadRecords() {
+        while (record < nRecords && recordEnds[record] <= outPos)
+            record++;
+    }
+
+    /** Number of decoded bytes that can be read without reading from the channel. */
+    @Override
+    public int available() {
+        return outEnd - outPos;
+    }
+
+    /**
+     * The next record, as a view of the output array from its position to its limit. The view and its contents are
+     * only valid until the next call to this stream.
+     *
+     * @return null at the end of the stream
+     */
+    public ByteBuffer nextRecord() throws IOException {
+        ensureOpen();
+        if (record == nRecords && !decodeBatch())
+            return null;
+        int start = outPos;
+        outPos = recordEnds[record++];
+        return view.limit(outPos).position(start);
+    }
+
+    /**
+     * The remaining records, see {@link #nextRecord()}. Every record is returned in the same ByteBuffer. An
+     * IOException while reading is thrown as an UncheckedIOException.
+     */
+    public Iterator<ByteBuffer> recordIterator() {
+        return new Iterator<>() {
+            ByteBuffer next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = nextRecord();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                ByteBuffer record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    /** Number of records decoded so far (read or not). */
+    public long records() {
+        return records;
+    }
+
+    /** The decoder of the table at the start of the stream. */
+    public FSSTDecoder decoder() {
+        return decoder;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        open = false;
+        channel.close();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open)
+            throw new IOException("stream closed");
+    }
+}
@@ -0,0 +1,274 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Counters of the work done with one symbol table, kept when the JVM runs with -Dfsst.metrics=true. An encoder
+ * counts in its table (see {@link FSSTEncoder#metrics()}), a decoder in its own instance, which starts over when it
+ * imports another table (see {@link FSSTDecoder#metrics()}). The counters are updated once per bulk call, not per
+ * string: the symbol lengths and escapes are counted in one pass over the codes of the call.
+ *
+ * Independent of this switch, the training rounds and the bulk calls emit JDK Flight Recorder events (fsst.Training,
+ * fsst.Compress, fsst.Decompress), which only cost something while a recording has them enabled: the bulk calls
+ * do not even allocate their event otherwise (see {@link #compressEvent()}).
+ *
+ * Without the switch, ENABLED is a constant false, the JIT drops the counting code and the metrics are null.
+ */
+public final class FSSTMetrics {
+    static final boolean ENABLED = Boolean.getBoolean("fsst.metrics");
+    private static final EventType COMPRESS_EVENT = EventType.getEventType(CompressEvent.class);
+    private static final EventType DECOMPRESS_EVENT = EventType.getEventType(DecompressEvent.class);
+    private static final EventType TRAINING_EVENT = EventType.getEventType(TrainingRoundEvent.class);
+
+    final LongAdder lines = new LongAdder(); // compressed strings
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder escapes = new LongAdder();
+    final LongAdder[] hits = new LongAdder[Symbol.maxLength]; // codes of symbols of length i+1
+    final LongAdder compressNanos = new LongAdder();
+    final LongAdder decodedLines = new LongAdder();
+    final LongAdder decodedBytesIn = new LongAdder();
+    final LongAdder decodedBytesOut = new LongAdder();
+    final LongAdder decompressNanos = new LongAdder();
+    volatile long trainingNanos;
+    volatile int trainingRounds;
+
+    FSSTMetrics() {
+        for (int i = 0; i < hits.length; i++)
+            hits[i] = new LongAdder();
+    }
+
+    /** A started fsst.Compress event, or null while no recording has the event enabled. */
+    static CompressEvent compressEvent() {
+        if (!COMPRESS_EVENT.isEnabled())
+            return null;
+        CompressEvent event = new CompressEvent();
+        event.begin();
+        return event;
+    }
+
+    /** A started fsst.Decompress event, or null while no recording has the event enabled. */
+    static DecompressEvent decompressEvent() {
+        if (!DECOMPRESS_EVENT.isEnabled())
+            return null;
+        DecompressEvent event = new DecompressEvent();
+        event.begin();
+        return event;
+    }
+
+    /** A started fsst.Training event, or null while no recording has the event enabled. */
+    static TrainingRoundEvent trainingEvent() {
+        if (!TRAINING_EVENT.isEnabled())
+            return null;
+        TrainingRoundEvent event = new TrainingRoundEvent();
+        event.begin();
+        return event;
+    }
+
+    void trained(long nanos, int rounds) {
+        trainingNanos = nanos;
+        trainingRounds = rounds;
+    }
+
+    // count a bulk compression of lines strings of bytesIn bytes into the codes out[from, to)
+    void compressed(int lines, long bytesIn, byte[] out, int from, int to, byte[] symbolLens, long nanos) {
+        long[] counts = new long[Symbol.maxLength + 1]; // hits per length, and the escapes last
+        for (int pos = from; pos < to; ) {
+            int code = out[pos] & 0xFF;
+            if (code == FSSTDecoder.FSST_ESC) {
+                counts[Symbol.maxLength]++;
+                pos += 2;
+            } else {
+                counts[symbolLens[code] - 1]++;
+                pos++;
+            }
+        }
+        add(lines, bytesIn, to - from, counts, nanos);
+    }
+
+    void compressed(int lines, long bytesIn, MemorySegment out, long from, long to, byte[] symbolLens, long nanos) {
+        long[] counts = new long[Symbol.maxLength + 1];
+        for (long pos = from; pos < to; ) {
+            int code = out.get(ValueLayout.JAVA_BYTE, pos) & 0xFF;
+            if (code == FSSTDecoder.FSST_ESC) {
+                counts[Symbol.maxLength]++;
+                pos += 2;
+            } else {
+                counts[symbolLens[code] - 1]++;
+                pos++;
+            }
+        }
+        add(lines, bytesIn, to - from, counts, nanos);
+    }
+
+    private void add(int lines, long bytesIn, long bytesOut, long[] counts, long nanos) {
+        this.lines.add(lines);
+        this.bytesIn.add(bytesIn);
+        this.bytesOut.add(bytesOut);
+        for (int i = 0; i < hits.length; i++)
+            hits[i].add(counts[i]);
+        escapes.add(counts[Symbol.maxLength]);
+        compressNanos.add(nanos);
+    }
+
+    void decompressed(int lines, long bytesIn, long bytesOut, long nanos) {
+        decodedLines.add(lines);
+        decodedBytesIn.add(bytesIn);
+        decodedBytesOut.add(bytesOut);
+        decompressNanos.add(nanos);
+    }
+
+    /** Strings compressed. */
+    public long lines() {
+        return lines.sum();
+    }
+
+    /** Bytes of the strings compressed. */
+    public long bytesIn() {
+        return bytesIn.sum();
+    }
+
+    /** Bytes of the codes they were compressed to. */
+    public long bytesOut() {
+        return bytesOut.sum();
+    }
+
+    /** Bytes that had no symbol and were escaped (each takes two bytes of codes). */
+    public long escapes() {
+        return escapes.sum();
+    }
+
+    /** Codes emitted for symbols of the given length (1..8), like lenHisto but weighted by use. */
+    public long hits(int length) {
+        return hits[length - 1].sum();
+    }
+
+    /** Time spent in the training rounds of the table, 0 for an imported table. */
+    public long trainingNanos() {
+        return trainingNanos;
+    }
+
+    public int trainingRounds() {
+        return trainingRounds;
+    }
+
+    /** Time spent in bulk compression calls. */
+    public long compressNanos() {
+        return compressNanos.sum();
+    }
+
+    /** Strings decompressed by bulk calls. */
+    public long decodedLines() {
+        return decodedLines.sum();
+    }
+
+    /** Bytes of the codes decompressed. */
+    public long decodedBytesIn() {
+        return decodedBytesIn.sum();
+    }
+
+    /** Bytes they were decompressed to. */
+    public long decodedBytesOut() {
+        return decodedBytesOut.sum();
+    }
+
+    /** Time spent in bulk decompression calls. */
+    public long decompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder hitsPerLength = new StringBuilder();
+        for (int length = 1; length <= hits.length; length++)
+            hitsPerLength.append(length == 1 ? "" : ",").append(hits(length));
+        return String.format("training %d rounds %.3f ms; compressed %d lines %d -> %d bytes (%d escapes, hits per"
+                + " length %s) %.3f ms; decompressed %d lines %d -> %d bytes %.3f ms", trainingRounds(),
+                trainingNanos() / 1e6, lines(), bytesIn(), bytesOut(), escapes(), hitsPerLength, compressNanos() / 1e6,
+                decodedLines(), decodedBytesIn(), decodedBytesOut(), decompressNanos() / 1e6);
+    }
+
+    /** One round of SymbolTable.buildSymbolTable: counting the sample and making the next table from the counts. */
+    @Name("fsst.Training")
+    @Label("FSST Training Round")
+    @Category("FSST")
+    static final class TrainingRoundEvent extends Event {
+        @Label("Sample Fraction")
+        @Description("Out of 128, the part of the sample counted in this round")
+        int sampleFrac;
+        @Label("Gain")
+        @Description("Bytes the table of this round saves on the counted sample")
+        int gain;
+        @Label("Symbols")
+        int symbols;
+
+        void end(int sampleFrac, int gain, int symbols) {
+            if (shouldCommit()) {
+                this.sampleFrac = sampleFrac;
+                this.gain = gain;
+                this.symbols = symbols;
+                commit();
+            }
+        }
+    }
+
+    @Name("fsst.Compress")
+    @Label("FSST Compress")
+    @Category("FSST")
+    static final class CompressEvent extends Event {
+        @Label("Strings")
+        int lines;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+        @Label("Variant")
+        String variant;
+
+        void end(int lines, long bytesIn, long bytesOut, CompactSymbolTable table) {
+            if (shouldCommit()) {
+                CompressionVariant.Choice choice = table.variant;
+                this.lines = lines;
+                this.bytesIn = bytesIn;
+                this.bytesOut = bytesOut;
+                this.variant = choice == null ? null : choice.variant.name();
+                commit();
+            }
+        }
+    }
+
+    @Name("fsst.Decompress")
+    @Label("FSST Decompress")
+    @Category("FSST")
+    static final class DecompressEvent extends Event {
+        @Label("Strings")
+        int lines;
+        @Label("Bytes In")
+        @DataAmount
+        long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        long bytesOut;
+
+        void end(int lines, long bytesIn, long bytesOut) {
+            if (shouldCommit()) {
+                this.lines = lines;
+                this.bytesIn = bytesIn;
+                this.bytesOut = bytesOut;
+                commit();
+            }
+        }
+    }
+}
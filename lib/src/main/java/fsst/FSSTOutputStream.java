@@ -0,0 +1,185 @@
+package fsst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compresses a stream of records on the fly. The bytes of a record are written with the write() methods (of
+ * OutputStream or WritableByteChannel) and the record is closed with {@link #endRecord()}. Records are compressed in
+ * chunks of 511 bytes as they come in (like compressBulk does, so the codes are the same), so only the compressed
+ * form of the current record is held in memory. Framed records are collected in a direct buffer that is written to
+ * the channel when it is full. {@link FSSTInputStream} reads the stream back.
+ *
+ * The stream starts with the exported symbol table (see {@link FSSTEncoder#export}); then each record is the
+ * byte-length of its compressed form as an unsigned LEB128 varint, followed by the codes. The channel must be
+ * blocking.
+ */
+public class FSSTOutputStream extends OutputStream implements WritableByteChannel {
+    static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    static final int CHUNK = 511; // compressBulk compresses strings in chunks of this size
+
+    final CompactSymbolTable table;
+    final boolean noSuffixOpt, avoidBranch;
+    final WritableByteChannel channel;
+    final OutputStream out; // if the channel wraps a stream, for flush()
+    final ByteBuffer buffer; // framed records to write to the channel
+
+    final byte[] chunk = new byte[CHUNK]; // not yet compressed bytes of the current record
+    int chunkLen;
+    byte[] record = new byte[2 * CHUNK + 7]; // compressed bytes of the current record
+    int recordLen;
+    long records; // number of records ended
+    boolean open = true;
+
+    public FSSTOutputStream(FSSTEncoder encoder, WritableByteChannel channel) {
+        this(encoder, channel, null, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FSSTOutputStream(FSSTEncoder encoder, OutputStream out) {
+        this(encoder, Channels.newChannel(out), out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /** @param bufferSize size of the direct buffer in which records are batched */
+    public FSSTOutputStream(FSSTEncoder encoder, WritableByteChannel channel, int bufferSize) {
+        this(encoder, channel, null, bufferSize);
+    }
+
+    private FSSTOutputStream(FSSTEncoder encoder, WritableByteChannel channel, OutputStream out, int bufferSize) {
+        this.table = encoder.table;
+        CompressionVariant variant = encoder.variant().variant;
+        this.noSuffixOpt = variant.noSuffixOpt;
+        this.avoidBranch = variant.avoidBranch;
+        this.channel = channel;
+        this.out = out;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, FSSTEncoder.FSST_MAXHEADER));
+        byte[] header = new byte[FSSTEncoder.FSST_MAXHEADER];
+        buffer.put(header, 0, encoder.export(header, 0));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        chunk[chunkLen++] = (byte) b;
+        if (chunkLen == CHUNK)
+            compress(chunk, 0, CHUNK);
+    }
+
+    /** Append b[off, off+len) to the current record. */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        if (chunkLen > 0) { // complete the pending chunk first
+            int n = Math.min(len, CHUNK - chunkLen);
+            System.arraycopy(b, off, chunk, chunkLen, n);
+            chunkLen += n;
+            off += n;
+            len -= n;
+            if (chunkLen < CHUNK)
+                return;
+            compress(chunk, 0, CHUNK);
+        }
+        for (; len >= CHUNK; off += CHUNK, len -= CHUNK)
+            compress(b, off, CHUNK); // whole chunks are compressed in place
+        System.arraycopy(b, off, chunk, 0, len);
+        chunkLen = len;
+    }
+
+    /** Append the remaining bytes of src to the current record. */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int written = src.remaining();
+        while (src.hasRemaining()) {
+            int n = Math.min(src.remaining(), CHUNK - chunkLen);
+            src.get(chunk, chunkLen, n);
+            if ((chunkLen += n) == CHUNK)
+                compress(chunk, 0, CHUNK);
+        }
+        return written;
+    }
+
+    // compress in[off, off+len) (at most one chunk) onto the current record
+    private void compress(byte[] in, int off, int len) {
+        if (record.length - recordLen < 2 * len + 7)
+            record = Arrays.copyOf(record, 2 * record.length);
+        recordLen = FSSTEncoder.compressString(table, in, off, off + len, record, recordLen, record.length,
+                noSuffixOpt, avoidBranch);
+        chunkLen = 0;
+    }
+
+    /** Close the current record (which may be empty) and frame it into the stream. */
+    public void endRecord() throws IOException {
+        ensureOpen();
+        if (chunkLen > 0)
+            compress(chunk, 0, chunkLen);
+        if (buffer.remaining() < 5 + recordLen)
+            flushBuffer();
+        for (int len = recordLen; true; len >>>= 7) { // LEB128 length
+            if (len < 0x80) {
+                buffer.put((byte) len);
+                break;
+            }
+            buffer.put((byte) (len | 0x80));
+        }
+        if (buffer.remaining() >= recordLen) {
+            buffer.put(record, 0, recordLen);
+        } else { // larger than the buffer, write it through
+            flushBuffer();
+            ByteBuffer src = ByteBuffer.wrap(record, 0, recordLen);
+            while (src.hasRemaining())
+                channel.write(src);
+        }
+        recordLen = 0;
+        records++;
+    }
+
+    /** Number of records written so far. */
+    public long records() {
+        return records;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Write the records ended so far to the channel (the current record is not ended). */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        if (out != null)
+            out.flush();
+    }
+
+    /** Ends the current record if anything was written to it, writes all records and closes the channel. */
+    @Override
+    public void close() throws IOException {
+        if (!open)
+            return;
+        if (chunkLen > 0 || recordLen > 0)
+            endRecord();
+        flushBuffer();
+        open = false;
+        channel.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open)
+            throw new ClosedChannelException();
+    }
+}
@@ -0,0 +1,20 @@
+package fsst;
+
+/**
+ * How the compressor finds the longest symbol at each position of a string (see FSSTEncoder.withEngine). Both
+ * produce codes of the same table, any decoder of the table decodes them.
+ */
+public enum MatchEngine {
+    /**
+     * The lossy perfect hash of FSST: a 65536-entry table for the symbols of 1-2 bytes and a hash table on the next 3
+     * bytes for longer ones. One probe per position, but the hash table holds one symbol of 3+ bytes per slot, so a
+     * table that was not trained for it (such as one of {@link FSSTEncoder#fromSymbols}) loses the symbols that
+     * collide.
+     */
+    HASH,
+    /**
+     * The symbols bucketed by their first byte, longest first (see BucketMap): a scan of the bucket per position,
+     * which is slower on large buckets, but no symbol is ever lost.
+     */
+    BUCKETS
+}
@@ -39,7 +39,7 @@ class QSymbol {
     static final int FSST_SAMPLETARGET = (1 << 14);
     static final int FSST_SAMPLEMAXSZ = (int) ((long) 2 * FSST_SAMPLETARGET);
     // high bits of icl (len=8,code=FSST_CODE_MASK) indicates free bucket
-    static final int FSST_ICL_FREE = ((15 << 28) | (((int) Symbol.FSST_CODE_MASK) << 16));
+    static final long FSST_ICL_FREE = ((15L << 28) | (((int) Symbol.FSST_CODE_MASK) << 16));
 
     // ignoredBits is (8-length)*8, which is the amount of high bits to zero in the
     // input word before comparing with the hashtable key
@@ -69,4 +69,22 @@ class QSymbol {
         return this.symbol.value == other.symbol.value && this.symbol.length() == other.symbol.length();
     }
 
+    @Override
+    public int hashCode() {
+        // std::hash<QSymbol> of the C++ code (MurmurHash64A of the symbol value)
+        long k = symbol.value;
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        long h = 0x8445d61a4e774912L ^ (8 * m);
+        k *= m;
+        k ^= k >>> r;
+        k *= m;
+        h ^= k;
+        h *= m;
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return (int) (h ^ (h >>> 32));
+    }
+
 }
@@ -0,0 +1,161 @@
+package fsst;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+
+/**
+ * Draws a training sample from a stream of strings in one pass, in bounded memory.
+ *
+ * Strings are cut into chunks of at most FSST_SAMPLELINE bytes, and every chunk gets a random key. The sample is
+ * the set of chunks with the smallest keys that still holds FSST_SAMPLETARGET bytes when its largest key is left
+ * out (so it is less than FSST_SAMPLETARGET+FSST_SAMPLELINE bytes), i.e. a reservoir sample by bytes. The kept
+ * chunks are stored in one FSST_SAMPLEMAXSZ byte arena; the random keys are drawn from the seed, so the same
+ * input and seed always give the same sample.
+ */
+public class Sampler {
+    // at most this many chunks are kept: each one is at least a byte (empty strings are not sampled)
+    static final int CAPACITY = (int) (Symbol.FSST_SAMPLETARGET + Symbol.FSST_SAMPLELINE);
+
+    final byte[] arena = new byte[(int) Symbol.FSST_SAMPLEMAXSZ];
+    int arenaEnd; // kept chunks are in arena[0,arenaEnd), in arrival order, with holes of evicted chunks
+    int liveBytes;
+
+    // chunk slots
+    final long[] key = new long[CAPACITY + 1];
+    final int[] off = new int[CAPACITY + 1];
+    final int[] len = new int[CAPACITY + 1];
+    final int[] free = new int[CAPACITY + 1];
+    int nFree, nSlots;
+
+    // max-heap of the kept slots, on key
+    final int[] heap = new int[CAPACITY + 1];
+    int heapSize;
+
+    final long[] order = new long[CAPACITY + 1]; // scratch for compact()
+    final SplittableRandom random;
+
+    public Sampler(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    public void add(byte[] in, int offset, int length) {
+        for (int chunk = 0; chunk < length; chunk += (int) Symbol.FSST_SAMPLELINE) {
+            int n = (int) Math.min(length - chunk, Symbol.FSST_SAMPLELINE);
+            int pos = reserve(n);
+            if (pos >= 0)
+                System.arraycopy(in, offset + chunk, arena, pos, n);
+        }
+    }
+
+    /** Add the string between the position and the limit of range (which are left unchanged). */
+    public void add(ByteBuffer range) {
+        if (range.hasArray()) {
+            add(range.array(), range.arrayOffset() + range.position(), range.remaining());
+            return;
+        }
+        for (int chunk = 0, length = range.remaining(); chunk < length; chunk += (int) Symbol.FSST_SAMPLELINE) {
+            int n = (int) Math.min(length - chunk, Symbol.FSST_SAMPLELINE);
+            int pos = reserve(n);
+            if (pos >= 0)
+                range.get(range.position() + chunk, arena, pos, n);
+        }
+    }
+
+    public void addAll(Iterator<ByteBuffer> strings) {
+        while (strings.hasNext())
+            add(strings.next());
+    }
+
+    public void addAll(Spliterator<ByteBuffer> strings) {
+        strings.forEachRemaining(this::add);
+    }
+
+    // make room for a chunk of n bytes, returns its arena position, or -1 if it is not sampled
+    private int reserve(int n) {
+        long k = random.nextLong();
+        if (n == 0 || (liveBytes >= Symbol.FSST_SAMPLETARGET && k >= key[heap[0]]))
+            return -1; // it would be evicted right away
+        if (arenaEnd + n > arena.length)
+            compact();
+
+        int slot = nFree > 0 ? free[--nFree] : nSlots++;
+        key[slot] = k;
+        off[slot] = arenaEnd;
+        len[slot] = n;
+        push(slot);
+        liveBytes += n;
+        int pos = arenaEnd;
+        arenaEnd += n;
+
+        // evict the largest keys as long as the rest holds the target size
+        while (liveBytes - len[heap[0]] >= Symbol.FSST_SAMPLETARGET) {
+            int top = pop();
+            liveBytes -= len[top];
+            free[nFree++] = top;
+        }
+        return pos;
+    }
+
+    private void push(int slot) {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (key[heap[parent]] >= key[slot])
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = slot;
+    }
+
+    private int pop() {
+        int top = heap[0], last = heap[--heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && key[heap[child + 1]] > key[heap[child]])
+                child++;
+            if (key[heap[child]] <= key[last])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    // move the kept chunks to the front of the arena, in arrival order
+    private void compact() {
+        for (int i = 0; i < heapSize; i++)
+            order[i] = ((long) off[heap[i]] << 32) | heap[i];
+        Arrays.sort(order, 0, heapSize);
+        arenaEnd = 0;
+        for (int i = 0; i < heapSize; i++) {
+            int slot = (int) order[i];
+            System.arraycopy(arena, off[slot], arena, arenaEnd, len[slot]);
+            off[slot] = arenaEnd;
+            arenaEnd += len[slot];
+        }
+    }
+
+    /**
+     * The sample so far, for {@link SymbolTable#buildSymbolTable}: sample line i is
+     * {@code arena[line[i], line[i]+lineLen[i])}. The arrays need room for CAPACITY lines.
+     *
+     * @return the number of sample lines
+     */
+    public int lines(int[] line, int[] lineLen) {
+        compact();
+        for (int i = 0; i < heapSize; i++) {
+            int slot = (int) order[i];
+            line[i] = off[slot];
+            lineLen[i] = len[slot];
+        }
+        return heapSize;
+    }
+}
@@ -1,7 +1,5 @@
 package fsst;
 
-import java.math.BigInteger;
-
 public class Symbol {
     static final short FSST_CODE_BITS = 9;
     static final short FSST_HASH_LOG2SIZE = 10;
@@ -34,7 +32,7 @@ public class Symbol {
     Symbol(byte c, int code) {
         // TODO: This needs to be checked
         this.icl = (1 << 28) | (code << 16) | 56;
-        this.value = c;
+        this.value = c & 0xFF;
     }
 
     Symbol(char input, int len) {
@@ -49,8 +47,20 @@ public class Symbol {
         this(begin, (int) end - begin);
     }
 
+    Symbol(byte[] input, int offset, int len) {
+        this.value = 0;
+        if (len >= 8) {
+            len = 8;
+        }
+        for (int i = 0; i < len; i++) {
+            this.value |= (input[offset + i] & 0xFFL) << (8 * i);
+        }
+        this.setCodeLength(FSST_CODE_MAX, len);
+    }
+
     void setCodeLength(int code, int len) {
-        this.icl = (len << 28) | (code << 16) | ((8 - len) * 8);
+        // length is shifted as a long, so that len=8 does not end up in the sign bit and icl compares unsigned
+        this.icl = ((long) len << 28) | (code << 16) | ((8 - len) * 8);
     }
 
     int length() {
@@ -75,17 +85,25 @@ public class Symbol {
         return (int) (0xFFFF & this.value);
     }
 
-    Symbol concat(Symbol a, Symbol b) {
-        Symbol s;
-         length = a.length()+b.length();
-   if (length > Symbol::maxLength) length = Symbol::maxLength; 
-   s.set_code_len(FSST_CODE_MASK, length);
-   s.val.num = (b.val.num << (8*a.length())) | a.val.num;
-   return s;
-}
+    static Symbol concat(Symbol a, Symbol b) {
+        Symbol s = new Symbol();
+        int length = a.length() + b.length();
+        if (length > Symbol.maxLength)
+            length = Symbol.maxLength;
+        s.setCodeLength(FSST_CODE_MASK, length);
+        s.value = (b.value << (8 * a.length())) | a.value;
+        return s;
+    }
+
+    Symbol copy() {
+        Symbol s = new Symbol();
+        s.value = value;
+        s.icl = icl;
+        return s;
+    }
 
     static long FSST_HASH(long w) {
-        return ((w * FSST_HASH_PRIME) ^ ((w * FSST_HASH_PRIME) >>> 13));
+        return ((w * FSST_HASH_PRIME) ^ ((w * FSST_HASH_PRIME) >>> FSST_SHIFT));
     }
 
     public long hash() {
@@ -1,9 +1,12 @@
 package fsst;
 
-import java.math.BigInteger;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SymbolTable {
+    static final int CHUNK_BYTES = 1 << 12; // bytes of sample counted separately by the parallel training
     final int hashTabSize = 1 << Symbol.FSST_HASH_LOG2SIZE;
     int[] shortCodes = new int[65536];
     int[] byteCodes = new int[256];
@@ -16,6 +19,8 @@ public class SymbolTable {
                             // zero-terminated compressed strings)
     int lenHisto[] = new int[Symbol.FSST_CODE_BITS]; // lenHisto[x] is the amount of symbols of byte-length (x+1) in
                                                      // this symbolTable
+    long trainingNanos; // time buildSymbolTable took to make this table, counted with -Dfsst.metrics=true
+    int trainingRounds;
 
     SymbolTable() {
         this.nSymbols = 0;
@@ -49,6 +54,7 @@ public class SymbolTable {
 
 
     public void clear() {
+        Arrays.fill(lenHisto, 0);
         for (int i = Symbol.FSST_CODE_BASE; i < Symbol.FSST_CODE_BASE + nSymbols; i++) {
             if (symbols[i].length() == 1) {
                 int val = symbols[i].first();
@@ -61,13 +67,38 @@ public class SymbolTable {
                 // TODO Check that the long conversions are safe and correct and that the int
                 // cast is safe
                 int idx = (int) (symbols[i].hash() & (tableSize));
-                hashTab[idx].value = 0;
-                hashTab[idx].icl = QSymbol.FSST_ICL_FREE; // marks empty in hashtab
+                // a copy of this table may still refer to the slot, so it is replaced rather than reset
+                Symbol empty = new Symbol();
+                empty.icl = QSymbol.FSST_ICL_FREE; // marks empty in hashtab
+                hashTab[idx] = empty;
             }
         }
         nSymbols = 0; // no need to clean symbols[] as no symbols are used
     }
 
+    /**
+     * Copy of this table (the C++ code assigns tables by value). The Symbol objects are shared, which is safe as
+     * long as a table only changes the symbols it adds itself.
+     */
+    SymbolTable copy() {
+        SymbolTable copy = new SymbolTable();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /** Overwrite this table with other, see {@link #copy()}. */
+    void copyFrom(SymbolTable other) {
+        System.arraycopy(other.shortCodes, 0, shortCodes, 0, shortCodes.length);
+        System.arraycopy(other.byteCodes, 0, byteCodes, 0, byteCodes.length);
+        System.arraycopy(other.symbols, 0, symbols, 0, symbols.length);
+        System.arraycopy(other.hashTab, 0, hashTab, 0, hashTab.length);
+        System.arraycopy(other.lenHisto, 0, lenHisto, 0, lenHisto.length);
+        nSymbols = other.nSymbols;
+        suffixLim = other.suffixLim;
+        terminator = other.terminator;
+        zeroTerminated = other.zeroTerminated;
+    }
+
     boolean hashInsert(Symbol s) {
         // TODO Check that the long conversions are safe and correct and that the int
         // cast is safe
@@ -75,9 +106,11 @@ public class SymbolTable {
         boolean taken = (hashTab[idx].icl < QSymbol.FSST_ICL_FREE);
         if (taken)
             return false; // collision in hash table
-        hashTab[idx].icl = s.icl;
-        BigInteger offset = new BigInteger(String.valueOf("0xFFFFFFFFFFFFFFFF"));
-        hashTab[idx].value = s.value & (offset.shiftRight((int) s.icl)).intValue();
+        // the empty slots all share one Symbol instance, so the slot gets a Symbol of its own
+        Symbol slot = new Symbol();
+        slot.icl = s.icl;
+        slot.value = s.value & (0xFFFFFFFFFFFFFFFFL >>> s.icl);
+        hashTab[idx] = slot;
         return true;
     }
 
@@ -104,9 +137,8 @@ public class SymbolTable {
         // TODO Check that the long conversions are safe and correct and that the int
         // cast is safe
         int idx = (int) (s.hash() & (hashTabSize - 1));
-        BigInteger offset = new BigInteger("0xFFFFFFFFFFFFFFFF");
         if (hashTab[idx].icl <= s.icl
-                && hashTab[idx].value == (s.value & (offset.intValue() >> ((int) hashTab[idx].icl)))) {
+                && hashTab[idx].value == (s.value & (0xFFFFFFFFFFFFFFFFL >>> ((int) hashTab[idx].icl & 0xFF)))) {
             return (int) ((hashTab[idx].icl >> 16) & Symbol.FSST_CODE_MASK); // matched a long symbol
         }
         if (s.length() >= 2) {
@@ -117,8 +149,8 @@ public class SymbolTable {
         return byteCodes[s.first()] & Symbol.FSST_CODE_MASK;
     }
 
-    int findLongestSymbol(byte cur, byte end) {
-        Symbol symbol = new Symbol(cur, end);
+    int findLongestSymbol(byte[] in, int cur, int end) {
+        Symbol symbol = new Symbol(in, cur, end - cur);
         return findLongestSymbol(symbol); // represent the string as a temporary symbol
     }
 
@@ -181,18 +213,15 @@ public class SymbolTable {
         for (int i = zeroTerminated, j = rsum[2]; i < nSymbols; i++) {
             Symbol s1 = symbols[Symbol.FSST_CODE_BASE + i];
             int len = s1.length();
-            int opt = (len == 2) ? 1 : 0 * nSymbols;
-            if (opt == 0) {
+            int opt = (len == 2) ? nSymbols : 0;
+            if (opt != 0) {
                 int first2 = s1.first2();
                 for (int k = 0; k < opt; k++) {
                     Symbol s2 = symbols[Symbol.FSST_CODE_BASE + k];
                     if (k != i && s2.length() > 1 && first2 == s2.first2()) // test if symbol k is a suffix of s
                         opt = 0;
                 }
-                // By putting 'opt' by itself I think the code was implicitly checking if it was
-                // true in the ternary operator
-                // so by doing 'opt == 0' I believe we achieve the same effect
-                newCode[i] = opt == 0 ? suffixLim++ : --j; // symbols without a larger suffix have a code < suffixLim
+                newCode[i] = opt != 0 ? suffixLim++ : --j; // symbols without a larger suffix have a code < suffixLim
             } else
                 newCode[i] = rsum[len - 1]++;
             s1.setCodeLength(newCode[i], len);
@@ -201,14 +230,14 @@ public class SymbolTable {
         // renumber the codes in byteCodes[]
         for (int i = 0; i < 256; i++) {
             if ((byteCodes[i] & Symbol.FSST_CODE_MASK) >= Symbol.FSST_CODE_BASE)
-                byteCodes[i] = newCode[(int) byteCodes[i]] + (1 << Symbol.FSST_LEN_BITS);
+                byteCodes[i] = newCode[byteCodes[i] & 0xFF] + (1 << Symbol.FSST_LEN_BITS);
             else
                 byteCodes[i] = 511 + (1 << Symbol.FSST_LEN_BITS);
         }
         // renumber the codes in shortCodes[]
         for (int i = 0; i < 65536; i++) {
             if ((shortCodes[i] & Symbol.FSST_CODE_MASK) >= Symbol.FSST_CODE_BASE)
-                shortCodes[i] = newCode[(int) shortCodes[i]] + (shortCodes[i] & (15 << Symbol.FSST_LEN_BITS));
+                shortCodes[i] = newCode[shortCodes[i] & 0xFF] + (shortCodes[i] & (15 << Symbol.FSST_LEN_BITS));
             else
                 shortCodes[i] = byteCodes[i & 0xFF];
         }
@@ -216,42 +245,55 @@ public class SymbolTable {
         // replace the symbols in the hash table
         for (int i = 0; i < hashTabSize; i++)
             if (hashTab[i].icl < QSymbol.FSST_ICL_FREE)
-                hashTab[i] = symbols[newCode[(int) hashTab[i].code()]];
+                hashTab[i] = symbols[newCode[hashTab[i].code() & 0xFF]];
+    }
+
+    /** The compact, immutable layout of this table for compression; the table must be finalized. */
+    public CompactSymbolTable compact() {
+        return new CompactSymbolTable(this);
     }
 
-    boolean isEscapeCode(int pos) {
+
+    static boolean isEscapeCode(int pos) {
         return pos < Symbol.FSST_CODE_BASE;
     }
 
-    // TODO: This functionn is technically written as a lambda function inside the
-    // buildSymbolTable function
-    // Unclear whether it is okay to leave it as a standalone function, but for
-    // simplicity's sake leaving it for now.
-    int compressCount(SymbolTable symbolTable, Counters counters, Integer[] line, int[] len, int sampleFrac) {
+    // a random number between 1 and 128, the same for a line in every run (seed 0 gives the libfsst numbers)
+    static int rnd128(int i, int sampleFrac, long seed) {
+        return 1 + (int) (Symbol.FSST_HASH(((i + 1L) * sampleFrac) ^ seed) & 127);
+    }
+
+    /**
+     * Compress the sample lines [from,to) and count (pair-)frequencies of the codes, returns the gain. Only reads the
+     * symbol table, so disjoint line ranges can be counted in parallel, each into its own Counters.
+     *
+     * Sample line i is {@code sample[line[i], line[i]+len[i])}.
+     */
+    static int compressCount(SymbolTable st, Counters counters, byte[] sample, int[] line, int[] len, int from,
+            int to, int sampleFrac, long seed) {
         int gain = 0;
-        Random rand = new Random();
-        for (int i = 0; i < len.length; i++) {
+
+        for (int i = from; i < to; i++) {
             int cur = line[i];
             int end = cur + len[i];
+
             if (sampleFrac < 128) {
-                if (rand.nextInt(i) > sampleFrac) {
+                // in earlier rounds (sampleFrac < 128) we skip data in the sample (reduces overall work ~2x)
+                if (rnd128(i, sampleFrac, seed) > sampleFrac)
                     continue;
-                }
             }
             if (cur < end) {
                 int start = cur;
-                int code2 = 255, code1 = symbolTable.findLongestSymbol((byte) cur, (byte) end);
-                cur += symbolTable.symbols[code1].length();
-                gain += (int) (symbolTable.symbols[code1].length() - (1 + Utils.booleanToInt(isEscapeCode(code1))));
+                int code2 = 255, code1 = st.findLongestSymbol(sample, cur, end);
+                cur += st.symbols[code1].length();
+                gain += st.symbols[code1].length() - (1 + Utils.booleanToInt(isEscapeCode(code1)));
                 while (true) {
                     // count single symbol (i.e. an option is not extending it)
-                    // TODO: Double check which boolean flag we need for our specific implementation
-                    counters.count1Inc(code1, true);
+                    counters.count1Inc(code1);
 
                     // as an alternative, consider just using the next byte..
-                    if (symbolTable.symbols[code1].length() != 1) // .. but do not count single byte symbols doubly
-                        // TODO: Double check which boolean flag we need for our specific implementation
-                        counters.count1Inc(start, true);
+                    if (st.symbols[code1].length() != 1) // .. but do not count single byte symbols doubly
+                        counters.count1Inc(sample[start] & 0xFF);
 
                     if (cur == end) {
                         break;
@@ -260,49 +302,37 @@ public class SymbolTable {
                     // now match a new symbol
                     start = cur;
                     if (cur < end - 7) {
-                        // NOTE: Technically the c++ code does an unaligned load here, but I'm not sure
-                        // how to replicate that or if we even need to
-                        double word = cur;
-                        int code = (int) word & 0xFFFFFF;
-                        // TODO Check that the long conversions are safe and correct and that the int
-                        // cast is safe
-                        int idx = (int) (Symbol.FSST_HASH(code) & (hashTabSize - 1));
-                        Symbol s = symbolTable.hashTab[idx];
-                        long word_bits = Double.doubleToRawLongBits(word);
-                        long offset_bits = Double.doubleToRawLongBits(0xFFFF);
-                        long res = word_bits & offset_bits;
-                        code2 = symbolTable.shortCodes[(int) res] & Symbol.FSST_CODE_MASK;
-                        double literal = 0xFFFFFFFFFFFFFFFFL;
-                        // Probably unsafe integer cast here
-                        int t = ((int) literal >> (int) s.icl);
-                        // FIXME: Find a way to integrate this back in
-                        // word &= t;
+                        long word = Utils.fsst_unaligned_load(sample, cur);
+                        int code = (int) (word & 0xFFFFFF);
+                        int idx = (int) (Symbol.FSST_HASH(code) & (st.hashTabSize - 1));
+                        Symbol s = st.hashTab[idx];
+                        code2 = st.shortCodes[(int) (word & 0xFFFF)] & Symbol.FSST_CODE_MASK;
+                        word &= (0xFFFFFFFFFFFFFFFFL >>> ((int) s.icl & 0xFF));
                         if ((s.icl < QSymbol.FSST_ICL_FREE) & (s.value == word)) {
                             code2 = s.code();
                             cur += s.length();
                         } else if (code2 >= Symbol.FSST_CODE_BASE) {
                             cur += 2;
                         } else {
-                            // Probably unsafe integer cast here
-                            code2 = symbolTable.byteCodes[(int) word & 0xFF] & Symbol.FSST_CODE_MASK;
+                            code2 = st.byteCodes[(int) (word & 0xFF)] & Symbol.FSST_CODE_MASK;
                             cur += 1;
                         }
                     } else {
-                        code2 = symbolTable.findLongestSymbol((byte) cur, (byte) end);
-                        cur += symbolTable.symbols[code2].length();
+                        code2 = st.findLongestSymbol(sample, cur, end);
+                        cur += st.symbols[code2].length();
                     }
 
                     // compute compressed output size
-                    gain += ((int) (cur - start)) - (1 + Utils.booleanToInt(isEscapeCode(code2)));
+                    gain += (cur - start) - (1 + Utils.booleanToInt(isEscapeCode(code2)));
 
                     // now count the subsequent two symbols we encode as an extension codesibility
                     if (sampleFrac < 128) { // no need to count pairs in final round
                         // consider the symbol that is the concatenation of the two last symbols
-                        counters.count2Inc(code1, code2, true);
+                        counters.count2Inc(code1, code2);
 
                         // as an alternative, consider just extending with the next byte..
                         if ((cur - start) > 1) // ..but do not count single byte extensions doubly
-                            counters.count2Inc(code1, start, true);
+                            counters.count2Inc(code1, sample[start] & 0xFF);
                     }
                     code1 = code2;
                 }
@@ -311,98 +341,201 @@ public class SymbolTable {
         return gain;
     }
 
-    SymbolTable buildSymbolTable(Counters counters, Integer[] line, int[] len, int zeroTerminated) {
-        SymbolTable symbolTable = new SymbolTable();
-        SymbolTable bestTable = new SymbolTable();
-        int bestGain = (int) -Symbol.FSST_SAMPLEMAXSZ;
-        int sampleFrac = -128;
-        // XXX: HACK
-        symbolTable.zeroTerminated = zeroTerminated == 0;
-        if (zeroTerminated == 0) {
-            symbolTable.terminator = 0;
-        } else {
-            int byteHisto[] = new int[256];
-            for (int i = 0; i < len.length; i++) {
-                int cur = line[i];
-                int end = cur + len[i];
-                while (cur < end) {
-                    byteHisto[cur++]++;
+    // run compressCount() over the whole sample. The lines are cut into chunks (chunk c is the lines [chunks[c],
+    // chunks[c+1])), which at most one worker per thread of the pool take in turn. A worker counts each chunk on its
+    // own and merges it into counters: merging adds modulo the counter sizes, so the order does not matter, but the
+    // chunks must not depend on the pool, as a 12-bits pair counter that overflows within a chunk spills into its
+    // neighbour. chunks null counts all lines in one go.
+    static int compressCount(ForkJoinPool pool, SymbolTable st, Counters counters, int[] chunks, byte[] sample,
+            int[] line, int[] len, int nlines, int sampleFrac, long seed) {
+        counters.clear();
+        if (chunks == null)
+            return compressCount(st, counters, sample, line, len, 0, nlines, sampleFrac, seed);
+        int nChunks = chunks.length - 1;
+        if (nChunks == 1) // counting into empty counters is the same as merging into them
+            return compressCount(st, counters, sample, line, len, chunks[0], chunks[1], sampleFrac, seed);
+
+        AtomicInteger next = new AtomicInteger();
+        @SuppressWarnings("unchecked")
+        ForkJoinTask<Integer>[] tasks = new ForkJoinTask[Math.min(nChunks, pool.getParallelism())];
+        for (int w = 0; w < tasks.length; w++) {
+            tasks[w] = pool.submit(() -> {
+                Counters worker = Counters.acquire();
+                int gain = 0;
+                for (int c; (c = next.getAndIncrement()) < nChunks; ) {
+                    gain += compressCount(st, worker, sample, line, len, chunks[c], chunks[c + 1], sampleFrac, seed);
+                    synchronized (counters) {
+                        counters.merge(worker);
+                    }
+                    worker.clear();
                 }
+                Counters.release(worker);
+                return gain;
+            });
+        }
+        int gain = 0;
+        for (ForkJoinTask<Integer> task : tasks)
+            gain += task.join();
+        return gain;
+    }
+
+    static void addOrInc(Candidates cands, long value, int length, long count, int sampleFrac) {
+        if (count < (5 * sampleFrac) / 128)
+            return; // improves both compression speed (less candidates), but also quality!!
+        cands.addOrInc(value, length, count * length); // if found, add gain, else insert
+    }
+
+    static void makeTable(SymbolTable st, Counters counters, int sampleFrac, Candidates cands) {
+        // hashmap of candidates (needed because we can generate duplicate candidates)
+        cands.clear();
+
+        // artificially make terminater the most frequent symbol so it gets included
+        int terminator = st.nSymbols != 0 ? Symbol.FSST_CODE_BASE : st.terminator;
+        counters.count1Set(terminator, 65535);
+
+        // add candidate symbols based on counted frequency
+        for (int pos1 = 0; pos1 < Symbol.FSST_CODE_BASE + st.nSymbols; pos1++) {
+            long next1 = counters.count1GetNext(pos1); // may advance pos1!!
+            pos1 = (int) (next1 >>> 32);
+            int cnt1 = (int) next1;
+            if (cnt1 == 0)
+                continue;
+
+            // heuristic: promoting single-byte symbols (*8) helps reduce exception rates and increases
+            // [de]compression speed
+            Symbol s1 = st.symbols[pos1];
+            int len1 = s1.length();
+            addOrInc(cands, s1.value, len1, ((len1 == 1) ? 8L : 1L) * cnt1, sampleFrac);
+
+            if (sampleFrac >= 128 || // last round we do not create new (combined) symbols
+                    s1.length() == Symbol.maxLength || // symbol cannot be extended
+                    s1.first() == st.terminator) { // multi-byte symbols cannot contain the terminator byte
+                continue;
+            }
+            for (int pos2 = 0; pos2 < Symbol.FSST_CODE_BASE + st.nSymbols; pos2++) {
+                long next2 = counters.count2GetNext(pos1, pos2); // may advance pos2!!
+                pos2 = (int) (next2 >>> 32);
+                int cnt2 = (int) next2;
+                if (cnt2 == 0)
+                    continue;
+
+                // create a new symbol
+                Symbol s2 = st.symbols[pos2];
+                if (s2.first() != st.terminator) // multi-byte symbols cannot contain the terminator byte
+                    addOrInc(cands, (s2.value << (8 * len1)) | s1.value, Math.min(len1 + s2.length(),
+                            Symbol.maxLength), cnt2, sampleFrac); // concat(s1, s2), without the Symbol
+            }
+        }
+
+        // order candidates by gain (ties broken on the smallest unsigned symbol value)
+        cands.heapify();
+
+        // Create new symbol map using best candidates; a candidate that collides in the hash table is skipped, so
+        // this may take more than 255 of them
+        st.clear();
+        while (st.nSymbols < 255 && !cands.isEmpty()) {
+            int slot = cands.poll();
+            Symbol s = new Symbol();
+            s.value = cands.values[slot];
+            s.setCodeLength(Symbol.FSST_CODE_MASK, cands.lens[slot]);
+            st.add(s);
+        }
+    }
+
+    /**
+     * Build a symbol table from a sample, single-threaded (like libfsst).
+     *
+     * @param sample    sample line i is {@code sample[line[i], line[i]+len[i])}
+     * @param counters  scratch space for the frequency counts
+     */
+    static SymbolTable buildSymbolTable(Counters counters, byte[] sample, int[] line, int[] len, int nlines,
+            int zeroTerminated) {
+        return buildSymbolTable(null, counters, null, sample, line, len, nlines, zeroTerminated, 0);
+    }
+
+    /**
+     * Build a symbol table from a sample, counting the lines in parallel in pool: the sample is cut into chunks of
+     * about 4KB, which are counted separately by at most one worker per thread of the pool and merged before a single
+     * makeTable() per round. The result only depends on the sample and the seed (the choice of lines in the early
+     * rounds), not on the parallelism of the pool. The counters come from, and go back to, the free ones of the
+     * process (see Counters.acquire()).
+     */
+    static SymbolTable buildSymbolTable(ForkJoinPool pool, byte[] sample, int[] line, int[] len, int nlines,
+            int zeroTerminated, long seed) {
+        int[] chunks = new int[nlines + 2];
+        int nChunks = 0;
+        long bytes = 0;
+        for (int i = 0; i < nlines; i++) {
+            bytes += len[i];
+            if (bytes >= CHUNK_BYTES && i + 1 < nlines) {
+                chunks[++nChunks] = i + 1;
+                bytes = 0;
+            }
+        }
+        chunks[++nChunks] = nlines;
+        Counters counters = Counters.acquire();
+        try {
+            return buildSymbolTable(pool, counters, Arrays.copyOf(chunks, nChunks + 1), sample, line, len, nlines,
+                    zeroTerminated, seed);
+        } finally {
+            Counters.release(counters);
+        }
+    }
+
+    private static SymbolTable buildSymbolTable(ForkJoinPool pool, Counters counters, int[] chunks,
+            byte[] sample, int[] line, int[] len, int nlines, int zeroTerminated, long seed) {
+        long start = FSSTMetrics.ENABLED ? System.nanoTime() : 0;
+        SymbolTable st = new SymbolTable(), bestTable = new SymbolTable();
+        Candidates cands = new Candidates(); // reused by all rounds
+        int bestGain = (int) -Symbol.FSST_SAMPLEMAXSZ; // worst case (everything exception)
+
+        // start by determining the terminator. We use the (lowest) most infrequent byte as terminator
+        st.zeroTerminated = zeroTerminated != 0;
+        if (zeroTerminated != 0) {
+            st.terminator = 0; // except in case of zeroTerminated mode, then byte 0 is terminator regardless frequency
+        } else {
+            int[] byteHisto = new int[256];
+            for (int i = 0; i < nlines; i++) {
+                for (int cur = line[i], end = cur + len[i]; cur < end; cur++)
+                    byteHisto[sample[cur] & 0xFF]++;
             }
-            int minSize = (int) Symbol.FSST_SAMPLEMAXSZ, i = symbolTable.terminator = 256;
+            int minSize = (int) Symbol.FSST_SAMPLEMAXSZ, i = st.terminator = 256;
             while (i-- > 0) {
                 if (byteHisto[i] > minSize)
                     continue;
-                symbolTable.terminator = i;
+                st.terminator = i;
                 minSize = byteHisto[i];
             }
         }
-        assert (symbolTable.terminator != 256);
-        Random rand = new Random(); //todo: check random seed
-        int rand128 = rand.nextInt(129);
-        int compressCountRet = this.compressCount(this, counters, line, len, sampleFrac);
-        // TODO: Implement this method @javacatknight
-        // SymbolTable table = this.makeTable(SymbolTable st, Counters counters);
-        // https://github.com/cwida/fsst/blob/42850e13ba220dbba5fd721a4c54f969e2a45ac5/libfsst.cpp#L160
-        return best;
-    }
-
-    // // TODO: @javacatknight
-    // void makeTable(SymbolTable symbolTable, Counters counters, int sampleFrac) {
-    //     //Hashmap (needed because we can generate duplicate candidates)
-    //     //Not using HashSet due to lack of find() method, see: https://stackoverflow.com/questions/7283338/getting-an-element-from-a-set
-    //     HashMap <QSymbol, boolean> candidates;
-
-    // //TODO: @javacatknight Google shift optimization over division. Caveats: auto done by compiler, dealing with negative
-    // }
-
-    //   // Add candidate symbols based on counted frequency
-    //   // TODO: u32pos1, u32cnt1, (size_t)st.nSymbols
-    //   for (int pos1=0; pos1<FSST_CODE_BASE+(int)st.nSymbols; pos1++) { 
-    //      int cnt1 = counters.count1GetNext(pos1); // may advance pos1!!
-    //      if (!cnt1) continue;
-
-    //      // heuristic: promoting single-byte symbols (*8) helps reduce exception rates and increases [de]compression speed
-    //      Symbol s1 = st.symbols[pos1];
-    //      //
-    //      addOrInc(candidates, s1, ((s1.length()==1)?(BigInteger)8:(BigInteger)1)*cnt1, sampleFrac);
-    //      if (sampleFrac >= 128 || // last round we do not create new (combined) symbols
-    //          s1.length() == Symbol.maxLength || // symbol cannot be extended
-    //          s1.val.str[0] == st.terminator) { // multi-byte symbols cannot contain the terminator byte
-    //         continue;
-    //      }
-    //      for (u32 pos2=0; pos2<FSST_CODE_BASE+(size_t)st->nSymbols; pos2++) { 
-    //         u32 cnt2 = counters.count2GetNext(pos1, pos2); // may advance pos2!!
-    //         if (!cnt2) continue;
-
-    //         // create a new symbol
-    //         Symbol s2 = st->symbols[pos2];
-    //         Symbol s3 = concat(s1, s2);
-    //         if (s2.val.str[0] != st->terminator) // multi-byte symbols cannot contain the terminator byte
-    //            addOrInc(cands, s3, cnt2);
-    //      }
-    //   }
-
-    // /**
-    //  * Helper function.
-    //  * 
-    //  * @param count unsigned 64byte must be parsed to long
-    //  */
-
-    // // TODO: @javacatknight auto type inference
-    // void addOrInc(HashMap <QSymbol> candidates, Symbol s, Long count, int sampleFrac){
-    //     if (count < (5*sampleFrac)/128) return; // Improves both compression speed (less candidates), but also quality!!
-        
-    //     QSymbol q;
-    //     q.symbol = s;
-    //     q.gain = count * s.length();
-         
-    //     // Iterator  //look for the symbol. If not found, just insert.
-    //      var it = candidates.get(q);
-    //      if (it != candidates.end()) { // if found, add gain first and then insert
-    //         q.gain += (*it).gain;
-    //         candidates.erase(*it);
-    //      }
-    //      candidates.insert(q);
+        assert (st.terminator != 256);
+
+        byte[] bestCounters = new byte[2 * Counters.FSST_CODE_MAX];
+        int rounds = 0;
+        for (int sampleFrac = 8; true; sampleFrac += 30) {
+            FSSTMetrics.TrainingRoundEvent event = FSSTMetrics.trainingEvent();
+            rounds++;
+            int gain = compressCount(pool, st, counters, chunks, sample, line, len, nlines, sampleFrac, seed);
+            if (gain >= bestGain) { // a new best solution!
+                counters.backup1(bestCounters);
+                bestTable.copyFrom(st);
+                bestGain = gain;
+            }
+            if (sampleFrac >= 128) { // we do 5 rounds (sampleFrac=8,38,68,98,128)
+                counters.restore1(bestCounters);
+                makeTable(bestTable, counters, sampleFrac, cands);
+                if (event != null)
+                    event.end(sampleFrac, gain, bestTable.nSymbols);
+                break;
+            }
+            makeTable(st, counters, sampleFrac, cands);
+            if (event != null)
+                event.end(sampleFrac, gain, st.nSymbols);
+        }
+        bestTable.finalize(zeroTerminated); // renumber codes for more efficient compression
+        if (FSSTMetrics.ENABLED) {
+            bestTable.trainingNanos = System.nanoTime() - start;
+            bestTable.trainingRounds = rounds;
+        }
+        return bestTable;
     }
 }
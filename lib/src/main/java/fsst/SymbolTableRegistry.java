@@ -0,0 +1,217 @@
+package fsst;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of imported symbol tables, shared by everything that opens pages. Pages and columns often carry
+ * byte-identical tables in their headers: the registry hands out one shared decoder (and encoder table) per distinct
+ * table, instead of one per page.
+ *
+ * Tables are looked up by a 64-bit fingerprint of their exported bytes, which are then compared in full. A hit
+ * probes an open-addressing array of the entries and stamps the entry with the current tick, without a lock, an
+ * allocation or a write to shared state: the tick only advances on a miss, and an entry is only written when its
+ * stamp changes. Entries are weighed by their footprint; when a new table takes the registry over its budget, the
+ * entries least recently used (at the resolution of the misses) are evicted. Evicted entries stay usable by whoever
+ * holds them.
+ */
+public final class SymbolTableRegistry {
+    /** The registry of the process. Its budget in bytes is set with -Dfsst.registry.budget (default 64MB). */
+    public static final SymbolTableRegistry GLOBAL = new SymbolTableRegistry(Long.getLong("fsst.registry.budget",
+            64L << 20));
+
+    /** A shared table. Its decoder refuses to import another table; its table must not be changed. */
+    public static final class Entry {
+        final SymbolTableRegistry registry;
+        final long fingerprint;
+        final byte[] header; // the exported table
+        final FSSTDecoder decoder;
+        volatile CompactSymbolTable table; // built on first use
+        volatile long lastUsed; // registry tick at the last lookup
+        boolean registered; // counted in the registry weight, guarded by the registry
+
+        Entry(SymbolTableRegistry registry, long fingerprint, byte[] header, FSSTDecoder decoder) {
+            this.registry = registry;
+            this.fingerprint = fingerprint;
+            this.header = header;
+            this.decoder = decoder;
+        }
+
+        public FSSTDecoder decoder() {
+            return decoder;
+        }
+
+        /** The table to encode with (to append to a page), built on first use. */
+        public CompactSymbolTable table() {
+            CompactSymbolTable table = this.table;
+            if (table == null) {
+                synchronized (registry) {
+                    if ((table = this.table) == null) {
+                        this.table = table = new CompactSymbolTable(decoder);
+                        if (registered) {
+                            registry.weight += table.footprintBytes();
+                            registry.evict();
+                        }
+                    }
+                }
+            }
+            return table;
+        }
+
+        public FSSTEncoder encoder() {
+            return new FSSTEncoder(table());
+        }
+
+        long weight() {
+            CompactSymbolTable table = this.table;
+            return 16 + header.length + decoder.footprintBytes() + (table != null ? table.footprintBytes() : 0);
+        }
+    }
+
+    final long budget;
+    // the registered entries, by linear probing on the fingerprint and at most half full. Replaced as a whole under
+    // the lock (copy on write), so that a lookup reads it without one.
+    volatile Entry[] slots = new Entry[16];
+    int count; // registered entries, guarded by this
+    long weight; // sum of the weights of the registered entries, guarded by this
+    // advanced on every miss, after stamping the new entry; hits only read it, so a hit ranks after the misses
+    // before it
+    final AtomicLong tick = new AtomicLong();
+
+    public SymbolTableRegistry(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * The shared table for the exported table at buf[offset..] (see {@link FSSTEncoder#export}).
+     *
+     * @return null if buf does not hold a table of this FSST version
+     */
+    public Entry get(MemorySegment buf, long offset) {
+        int size = exportedSize(buf, offset);
+        if (size < 0)
+            return null;
+        long fingerprint = fingerprint(buf, offset, size);
+        Entry entry = find(slots, fingerprint);
+        if (entry != null && matches(entry, buf, offset, size)) {
+            long now = tick.get();
+            if (entry.lastUsed != now) // keep the cache line of a hot entry shared
+                entry.lastUsed = now;
+            return entry;
+        }
+        return add(buf, offset, size, fingerprint);
+    }
+
+    /** Like {@link #get(MemorySegment, long)}, for the table at buf[offset..]. */
+    public Entry get(byte[] buf, int offset) {
+        return get(MemorySegment.ofArray(buf), offset);
+    }
+
+    /** Like {@link #get(MemorySegment, long)}, for the table at the position of buf (which is left unchanged). */
+    public Entry get(ByteBuffer buf) {
+        return get(MemorySegment.ofBuffer(buf), 0);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    private Entry add(MemorySegment buf, long offset, int size, long fingerprint) {
+        FSSTDecoder decoder = new FSSTDecoder();
+        if (decoder.import_from_buffer(buf, offset) != size)
+            return null;
+        decoder.shared = true;
+        Entry entry = new Entry(this, fingerprint, buf.asSlice(offset, size).toArray(ValueLayout.JAVA_BYTE),
+                decoder);
+        synchronized (this) {
+            Entry other = find(slots, fingerprint);
+            if (other != null) {
+                // added by another thread in the meantime, or another table with the same fingerprint (which is
+                // then not shared)
+                return matches(other, buf, offset, size) ? other : entry;
+            }
+            entry.registered = true;
+            entry.lastUsed = tick.getAndIncrement();
+            count++;
+            weight += entry.weight();
+            publish(entry);
+            evict();
+        }
+        return entry;
+    }
+
+    // evict the least recently used entry while over budget, holding the lock. A new table usually evicts one
+    // entry, so this is a scan for the oldest stamp per eviction rather than a sort of all entries.
+    private void evict() {
+        boolean evicted = false;
+        while (weight > budget) {
+            Entry oldest = null;
+            for (Entry entry : slots)
+                if (entry != null && entry.registered && (oldest == null || entry.lastUsed < oldest.lastUsed))
+                    oldest = entry;
+            if (oldest == null)
+                break;
+            oldest.registered = false;
+            count--;
+            weight -= oldest.weight();
+            evicted = true;
+        }
+        if (evicted)
+            publish(null);
+    }
+
+    // replace slots by a new array of its registered entries, and entry if not null, holding the lock
+    private void publish(Entry entry) {
+        int capacity = 16;
+        while (capacity < 2 * count)
+            capacity <<= 1;
+        Entry[] next = new Entry[capacity];
+        for (Entry registered : slots)
+            if (registered != null && registered.registered)
+                insert(next, registered);
+        if (entry != null)
+            insert(next, entry);
+        slots = next;
+    }
+
+    private static void insert(Entry[] slots, Entry entry) {
+        int mask = slots.length - 1, i = Long.hashCode(entry.fingerprint) & mask;
+        while (slots[i] != null)
+            i = (i + 1) & mask;
+        slots[i] = entry;
+    }
+
+    // the entry with this fingerprint in slots, or null
+    private static Entry find(Entry[] slots, long fingerprint) {
+        int mask = slots.length - 1;
+        for (int i = Long.hashCode(fingerprint) & mask;; i = (i + 1) & mask) {
+            Entry entry = slots[i];
+            if (entry == null || entry.fingerprint == fingerprint)
+                return entry;
+        }
+    }
+
+    private static boolean matches(Entry entry, MemorySegment buf, long offset, int size) {
+        return entry.header.length == size
+                && MemorySegment.mismatch(buf, offset, offset + size, MemorySegment.ofArray(entry.header), 0, size) < 0;
+    }
+
+    // byte-size of the exported table at buf[offset..], -1 if it cannot be one
+    static int exportedSize(MemorySegment buf, long offset) {
+        if (buf.byteSize() - offset < 17)
+            return -1;
+        int size = FSSTDecoder.exportedSize(buf, offset);
+        return size < 17 || buf.byteSize() - offset < size ? -1 : size;
+    }
+
+    // 64-bit hash of buf[offset, offset+size)
+    static long fingerprint(MemorySegment buf, long offset, int size) {
+        return CompressedHash.hash(buf, offset, size);
+    }
+}
@@ -1,18 +1,60 @@
 package fsst;
 
-import java.nio.ByteBuffer;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteOrder;
 
 public class Utils {
 
+    // symbols are kept in little endian (first byte in the lowest bits), so loads are little endian as well
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfLong JAVA_LONG_LE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    static final ValueLayout.OfInt JAVA_INT_LE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
     static int booleanToInt(boolean value) {
         return value ? 1 : 0;
     }
 
     public static long fsst_unaligned_load(byte[] v, int offset) {
-        ByteBuffer buffer = ByteBuffer.wrap(v, offset, 8);
-        buffer.order(ByteOrder.nativeOrder()); // Assuming you want native byte order
-        return buffer.getLong();
+        return (long) LONG_LE.get(v, offset);
+    }
+
+    /**
+     * Load the last (less than 8) bytes of a string chunk [offset,end) followed by the terminator byte, as if the
+     * chunk had been copied into a buffer with the terminator appended. Bytes beyond the terminator are zero.
+     */
+    static long fsst_terminated_load(byte[] v, int offset, int end, int terminator) {
+        int n = end - offset;
+        long word;
+        if (offset + 8 <= v.length) {
+            word = fsst_unaligned_load(v, offset) & ((1L << (n << 3)) - 1);
+        } else {
+            word = 0;
+            for (int i = 0; i < n; i++)
+                word |= (v[offset + i] & 0xFFL) << (i << 3);
+        }
+        return word | ((long) terminator << (n << 3));
+    }
+
+    public static long fsst_unaligned_load(MemorySegment v, long offset) {
+        return v.get(JAVA_LONG_LE, offset);
+    }
+
+    /** Off-heap variant of {@link #fsst_terminated_load(byte[], int, int, int)}. */
+    static long fsst_terminated_load(MemorySegment v, long offset, long end, int terminator) {
+        int n = (int) (end - offset);
+        long word;
+        if (offset + 8 <= v.byteSize()) {
+            word = fsst_unaligned_load(v, offset) & ((1L << (n << 3)) - 1);
+        } else {
+            word = 0;
+            for (int i = 0; i < n; i++)
+                word |= (v.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFFL) << (i << 3);
+        }
+        return word | ((long) terminator << (n << 3));
     }
 
 }
@@ -1,13 +0,0 @@
-package toolbox.Map;
-
-public class Entry {
-    long symbol;
-    char c;
-    char len;
-
-    Entry(long symbol, char c, char len) {
-        this.symbol = symbol;
-        this.c = c;
-        this.len = len;
-    }
-}
@@ -0,0 +1,119 @@
+package toolbox;
+
+import java.util.Arrays;
+
+import fsst.FSSTDecoder;
+import fsst.FSSTEncoder;
+
+/// How the compressor actually encodes a sample with a symbol set: the compressed size, the symbols it used with
+/// their gain, and the symbols it could use instead with theirs: the concatenations of two adjacent codes of up to 8
+/// bytes, and the escaped bytes. The gain is count * length, as in the training of FSST.
+class Parse {
+    static final int ESCAPE = 255; // code of an escaped byte, see FSSTDecoder
+    static final int SINGLE_BYTE_WEIGHT = 8; // the training of FSST also favours single bytes, they avoid escapes
+
+    // The compressed size of the sample
+    final long size;
+    // The symbols the compressor used, and their gain
+    long[] symbols;
+    long[] gains;
+    // The symbols that are not in the table, and their gain
+    long[] proposals;
+    long[] proposalGains;
+
+    // Compress the n strings of in (string i is in[offsets[i], offsets[i+1])) with the symbols. Proposals that
+    // contain a 0 or the terminator are left out.
+    Parse(long[] symbols, int terminator, int n, byte[] in, int[] offsets) {
+        int[] lengths = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++)
+            lengths[i] = ToolboxUtils.getSymbolLength(symbols[i]);
+        FSSTEncoder encoder = FSSTEncoder.fromSymbols(symbols.length, symbols, lengths, terminator);
+        byte[] out = new byte[7 + 2 * offsets[n]];
+        int[] outOffsets = new int[n + 1];
+        if (encoder.fsst_compress(n, in, offsets, out, outOffsets) != n)
+            throw new IllegalStateException("the sample does not fit the output buffer");
+        size = outOffsets[n];
+
+        // the symbol of each code, as a decoder sees it
+        FSSTDecoder decoder = encoder.decoder();
+        long[] codeSymbols = new long[ESCAPE];
+        int[] codeLengths = new int[ESCAPE];
+        byte[] code = new byte[1], symbol = new byte[8];
+        for (int c = 0; c < ESCAPE; c++) {
+            code[0] = (byte) c;
+            codeLengths[c] = decoder.decompress(code, 0, 1, symbol, 0);
+            for (int i = 0; i < codeLengths[c]; i++)
+                codeSymbols[c] |= (symbol[i] & 0xFFL) << (8 * i);
+        }
+
+        long[] counts = new long[ESCAPE];
+        long[] firstBytes = new long[256]; // of each code and escape
+        SymbolGains pairs = new SymbolGains(1 << 12);
+        for (int i = 0; i < n; i++) {
+            long previous = 0;
+            int previousLength = 0;
+            for (int pos = outOffsets[i]; pos < outOffsets[i + 1]; pos++) {
+                int c = out[pos] & 0xFF;
+                long current;
+                int length;
+                if (c == ESCAPE) {
+                    current = out[++pos] & 0xFF;
+                    length = 1;
+                } else {
+                    current = codeSymbols[c];
+                    length = codeLengths[c];
+                    counts[c]++;
+                }
+                firstBytes[(int) current & 0xFF]++;
+                if (previousLength > 0) {
+                    // the previous symbol extended by the current one, and by its first byte
+                    if (previousLength + length <= SubsetSelect.MAX_LENGTH) // count * length
+                        pairs.add(previous | current << (8 * previousLength), previousLength + length);
+                    if (length > 1 && previousLength < SubsetSelect.MAX_LENGTH)
+                        pairs.add(previous | (current & 0xFF) << (8 * previousLength), previousLength + 1);
+                }
+                previous = current;
+                previousLength = length;
+            }
+        }
+
+        int nUsed = 0;
+        for (int c = 0; c < ESCAPE; c++)
+            nUsed += counts[c] > 0 ? 1 : 0;
+        this.symbols = new long[nUsed];
+        this.gains = new long[nUsed];
+        for (int c = 0, i = 0; c < ESCAPE; c++) {
+            if (counts[c] > 0) {
+                this.symbols[i] = codeSymbols[c];
+                this.gains[i++] = codeLengths[c] == 1 ? SINGLE_BYTE_WEIGHT * counts[c] : counts[c] * codeLengths[c];
+            }
+        }
+
+        proposals = new long[256 + pairs.size()];
+        proposalGains = new long[proposals.length];
+        int nProposals = 0;
+        for (int b = 1; b < 256; b++) {
+            if (firstBytes[b] > 0 && b != terminator) {
+                proposals[nProposals] = b;
+                proposalGains[nProposals++] = SINGLE_BYTE_WEIGHT * firstBytes[b];
+            }
+        }
+        for (int i = 0; i < pairs.size(); i++) {
+            long proposal = pairs.symbol(i);
+            int length = ToolboxUtils.getSymbolLength(proposal);
+            if (!ToolboxUtils.contains0(proposal, length) && !contains(proposal, length, terminator)) {
+                proposals[nProposals] = proposal;
+                proposalGains[nProposals++] = pairs.gain(i);
+            }
+        }
+        proposals = Arrays.copyOf(proposals, nProposals);
+        proposalGains = Arrays.copyOf(proposalGains, nProposals);
+    }
+
+    static boolean contains(long symbol, int length, int b) {
+        for (int i = 0; i < length; i++, symbol >>>= 8)
+            if ((symbol & 0xFF) == b)
+                return true;
+        return false;
+    }
+}
@@ -1,33 +1,390 @@
 package toolbox;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
+import fsst.FSSTEncoder;
+
+/// Offline symbol selection: picks a symbol set for a sample in two stages, as opposed to the few sampling rounds of
+/// fsst.SymbolTable.buildSymbolTable. Slower, but it looks at every substring of up to 8 bytes of the sample and
+/// checks every change against the compressed size of the sample, so it can pay off for the hottest columns.
+///
+/// The strings are kept back to back, each followed by a 0 byte. A suffix array and its LCP array group all
+/// occurrences of each substring into one interval of the suffix array; every interval of a substring of 1 to 8
+/// bytes is a Candidate. The candidates are then taken by gain from a heap. Once a symbol is taken, its occurrences
+/// are marked in a BitMask, and the gain of the others is recomputed lazily: only when they reach the top of the
+/// heap, and only if something was taken since their last computation.
+///
+/// The gain follows the greedy longest match of the compressor: an occurrence that extends a shorter symbol taken
+/// at the same position saves the codes of the rest; a single byte symbol saves the escape of each occurrence that
+/// longer symbols leave, so it never takes positions itself; and a symbol of 3+ bytes is skipped when its hash
+/// table slot already holds one (see FSSTEncoder.fromSymbols).
+///
+/// This model does not see how the longest match of one symbol cuts the matches of the next, so the selection is
+/// then refined against the actual compression of the sample (see refine and Parse), keeping the smallest result.
 public class SubsetSelect {
-    private List<Byte> data;
+    static final int MAX_SYMBOLS = 255;
+    static final int MAX_LENGTH = 8;
+    static final int REFINE_SAMPLE = 1 << 20; // bytes of the sample the refinement compresses
+    static final int REBUILD_ROUNDS = 8; // from each start
+    static final int REFINE_ROUNDS = 64; // of swaps
+    static final int REFINE_SWAPS = 64; // the most symbols one round swaps
+
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private byte[] data;
+    private int size;
     private boolean[] used;
 
     // Constructor
     public SubsetSelect() {
-        data = new ArrayList<>();
+        data = new byte[1 << 16];
         used = new boolean[256];
     }
 
-    // Add a string for statistics computations
+    // Add a string for statistics computations (the low byte of each char)
     public void add(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) s.charAt(i);
+        add(bytes, 0, bytes.length);
+    }
+
+    // Add the string in[off, off+len)
+    public void add(byte[] in, int off, int len) {
         // Compute used
-        for (char c : s.toCharArray()) {
-            used[(byte) c & 0xFF] = true;
+        for (int i = off; i < off + len; i++) {
+            used[in[i] & 0xFF] = true;
         }
-        if (s.length() < 2) {
+        if (len < 2) {
             return;
         }
 
-        // Remember the text
-        for (char c : s.toCharArray()) {
-            data.add((byte) c);
+        // Remember the text, 0-terminated (and room for an 8-byte load at the end)
+        if (size + len + 1 + 8 > data.length)
+            data = Arrays.copyOf(data, Math.max(2 * data.length, size + len + 1 + 8));
+        System.arraycopy(in, off, data, size, len);
+        size += len;
+        data[size++] = 0;
+    }
+
+    // Bytes of sample text (the strings and their terminators)
+    public int size() {
+        return size;
+    }
+
+    // Select up to 255 symbols, highest gain in the compressed sample first. Symbol i is the non-zero low
+    // bytes of the result, little endian, see ToolboxUtils.getSymbolLength.
+    public long[] select() {
+        return refine(selectGreedy());
+    }
+
+    // The greedy selection on the gain model
+    long[] selectGreedy() {
+        int[] suffixArray = SuffixArray.build(data, size);
+        int[] lcp = ToolboxUtils.computeLCP(data, suffixArray);
+        Candidate[] candidates = candidates(suffixArray, lcp);
+
+        // a max-heap on gain of candidate indexes
+        int[] heap = new int[candidates.length];
+        int heapSize = 0;
+        for (int i = 0; i < candidates.length; i++)
+            heap[heapSize++] = i;
+        for (int i = heapSize / 2 - 1; i >= 0; i--)
+            siftDown(heap, heapSize, i, candidates);
+
+        BitMask modified = new BitMask();
+        modified.resize(size + MAX_LENGTH);
+        byte[] taken = new byte[size]; // length of the symbol taken at each position
+        boolean[] slotTaken = new boolean[1024];
+        long[] selected = new long[MAX_SYMBOLS];
+        int nSelected = 0, step = 0;
+        while (heapSize > 0 && nSelected < MAX_SYMBOLS) {
+            Candidate c = candidates[heap[0]];
+            if (c.modificationStep != step) {
+                // occurrences may have been taken by other symbols since the gain was computed
+                ToolboxUtils.recomputeGain(c, suffixArray, modified, taken);
+                c.modificationStep = step;
+                if (c.gain <= 0)
+                    heap[0] = heap[--heapSize];
+                siftDown(heap, heapSize, 0, candidates);
+                continue;
+            }
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, 0, candidates);
+            int len = ToolboxUtils.getSymbolLength(c.symbol);
+            if (len > 2 && slotTaken[FSSTEncoder.hashSlot(c.symbol)])
+                continue; // the compressor finds one symbol of 3+ bytes per hash slot, this one would be dropped
+            if (len > 2)
+                slotTaken[FSSTEncoder.hashSlot(c.symbol)] = true;
+            selected[nSelected++] = c.symbol;
+            if (len > 1) {
+                // a single byte symbol is the fallback for what longer symbols leave, it takes no positions
+                ToolboxUtils.invalidatePositions(c, suffixArray, modified, taken);
+                step++;
+            }
+        }
+
+        // which positions a symbol takes is only a model of the greedy longest match of the compressor, which may
+        // still need bytes that looked covered: spend the codes that are left on single bytes, most frequent first
+        boolean[] isSelected = new boolean[256];
+        for (int i = 0; i < nSelected; i++)
+            if (ToolboxUtils.getSymbolLength(selected[i]) == 1)
+                isSelected[(int) selected[i]] = true;
+        int[] bytes = new int[256];
+        int nBytes = 0;
+        for (int i = 0; i < candidates.length && candidates[i].symbol < 256; i++) // 1-byte candidates come first
+            if (!isSelected[(int) candidates[i].symbol])
+                bytes[nBytes++] = i;
+        for (int i = 0; i < nBytes && nSelected < MAX_SYMBOLS; i++) {
+            int best = i;
+            for (int j = i + 1; j < nBytes; j++)
+                if (occurrences(candidates[bytes[j]]) > occurrences(candidates[bytes[best]]))
+                    best = j;
+            int c = bytes[best];
+            bytes[best] = bytes[i];
+            selected[nSelected++] = candidates[c].symbol;
+        }
+        return Arrays.copyOf(selected, nSelected);
+    }
+
+    // Improve the symbols against the actual compression of the sample (see Parse). First rounds like those of the
+    // FSST training, from the symbols and from an empty table: each compresses with the symbols and proposals of
+    // highest gain in the last parse. Then, from the best table so far, swaps of the symbols of lowest gain for the
+    // proposals of highest gain, as many as still make the sample smaller, until no swap does.
+    long[] refine(long[] symbols) {
+        // the strings without their 0 terminators, up to REFINE_SAMPLE bytes of every k-th one
+        int nStrings = 0;
+        for (int i = 0; i < size; i++)
+            nStrings += data[i] == 0 ? 1 : 0;
+        int stride = Math.max(1, (int) ((size - nStrings + (long) REFINE_SAMPLE - 1) / REFINE_SAMPLE));
+        byte[] in = new byte[size];
+        int[] offsets = new int[nStrings / stride + 2];
+        int n = 0;
+        for (int start = 0, i = 0, s = 0; i < size; i++) {
+            if (data[i] != 0)
+                continue;
+            if (s++ % stride == 0) {
+                System.arraycopy(data, start, in, offsets[n], i - start);
+                offsets[n + 1] = offsets[n] + i - start;
+                n++;
+            }
+            start = i + 1;
+        }
+        int terminator = terminator();
+
+        Parse best = null;
+        for (long[] start : new long[][] { symbols, {} }) {
+            Parse parse = new Parse(start, terminator, n, in, offsets);
+            for (int round = 0; round <= REBUILD_ROUNDS; round++) {
+                if (best == null || parse.size < best.size)
+                    best = parse;
+                if (round < REBUILD_ROUNDS)
+                    parse = new Parse(rebuild(parse), terminator, n, in, offsets);
+            }
+        }
+        for (int round = 0; round < REFINE_ROUNDS; round++) {
+            Parse next = null;
+            for (int swaps = REFINE_SWAPS; swaps > 0 && next == null; swaps /= 2) {
+                Parse parse = new Parse(swap(best, swaps), terminator, n, in, offsets);
+                if (parse.size < best.size)
+                    next = parse;
+            }
+            if (next == null)
+                break;
+            best = next;
+        }
+        return sortByGain(best.symbols, best.gains);
+    }
+
+    // The symbols and proposals of highest gain, as a round of the FSST training picks them
+    private static long[] rebuild(Parse parse) {
+        SymbolGains candidates = new SymbolGains(parse.symbols.length + parse.proposals.length);
+        for (int i = 0; i < parse.symbols.length; i++)
+            candidates.add(parse.symbols[i], parse.gains[i]);
+        for (int i = 0; i < parse.proposals.length; i++)
+            candidates.add(parse.proposals[i], parse.proposalGains[i]);
+        long[] symbols = new long[candidates.size()], gains = new long[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = candidates.symbol(i);
+            gains[i] = candidates.gain(i);
         }
-        data.add((byte) 0);
+        return fill(sortByGain(symbols, gains));
     }
 
+    // The first 255 of the symbols, ordered by gain, that the compressor can find: a symbol of 3+ bytes that lands in
+    // the hash table slot of an earlier one is skipped
+    private static long[] fill(long[] symbols) {
+        boolean[] slotTaken = new boolean[1024];
+        long[] table = new long[MAX_SYMBOLS];
+        int n = 0;
+        for (int i = 0; i < symbols.length && n < MAX_SYMBOLS; i++) {
+            if (ToolboxUtils.getSymbolLength(symbols[i]) > 2) {
+                int slot = FSSTEncoder.hashSlot(symbols[i]);
+                if (slotTaken[slot])
+                    continue;
+                slotTaken[slot] = true;
+            }
+            table[n++] = symbols[i];
+        }
+        return Arrays.copyOf(table, n);
+    }
+
+    // The symbols of the parse without the ones of lowest gain, plus as many proposals of highest gain: swaps of
+    // each, and more proposals where the table has free codes. The result is ordered by gain, highest first, as a
+    // symbol of 3+ bytes takes its hash table slot in that order.
+    private static long[] swap(Parse parse, int swaps) {
+        SymbolGains current = new SymbolGains(parse.symbols.length);
+        for (int i = 0; i < parse.symbols.length; i++)
+            current.add(parse.symbols[i], parse.gains[i]);
+        int n = parse.symbols.length;
+        long[] symbols = Arrays.copyOf(parse.symbols, n + parse.proposals.length);
+        long[] gains = Arrays.copyOf(parse.gains, symbols.length);
+        for (int i = 0; i < parse.proposals.length; i++) {
+            if (!current.contains(parse.proposals[i])) {
+                symbols[n] = parse.proposals[i];
+                gains[n++] = parse.proposalGains[i];
+            }
+        }
+        int nProposals = n - parse.symbols.length;
+        int added = Math.min(nProposals, MAX_SYMBOLS - parse.symbols.length + swaps);
+        int kept = Math.min(parse.symbols.length, MAX_SYMBOLS - added);
+
+        // the best of each, then all by gain
+        int[] order = byGain(symbols, gains, 0, parse.symbols.length);
+        int[] proposed = byGain(symbols, gains, parse.symbols.length, n);
+        long[] selected = new long[kept + added];
+        long[] selectedGains = new long[kept + added];
+        for (int i = 0; i < kept + added; i++) {
+            int j = i < kept ? order[i] : proposed[i - kept];
+            selected[i] = symbols[j];
+            selectedGains[i] = gains[j];
+        }
+        return fill(sortByGain(selected, selectedGains));
+    }
+
+    // All symbols ordered by gain, highest first
+    private static long[] sortByGain(long[] symbols, long[] gains) {
+        int[] order = byGain(symbols, gains, 0, symbols.length);
+        long[] result = new long[order.length];
+        for (int i = 0; i < order.length; i++)
+            result[i] = symbols[order[i]];
+        return result;
+    }
+
+    // The indexes from..to-1 ordered by gain, highest first; equal gains go to the smaller symbol. A heap sort of
+    // the indexes, so that none is boxed.
+    private static int[] byGain(long[] symbols, long[] gains, int from, int to) {
+        int n = to - from;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = from + i;
+        for (int i = n / 2 - 1; i >= 0; i--)
+            siftDown(order, n, i, symbols, gains);
+        for (int end = n - 1; end > 0; end--) { // the top goes last of what is left
+            int last = order[0];
+            order[0] = order[end];
+            order[end] = last;
+            siftDown(order, end, 0, symbols, gains);
+        }
+        return order;
+    }
+
+    // restore the heap of indexes below index i, with the index that goes last on top
+    private static void siftDown(int[] heap, int heapSize, int i, long[] symbols, long[] gains) {
+        int top = heap[i];
+        for (int child; (child = 2 * i + 1) < heapSize; i = child) {
+            if (child + 1 < heapSize && byGainBefore(heap[child], heap[child + 1], symbols, gains))
+                child++;
+            if (!byGainBefore(top, heap[child], symbols, gains))
+                break;
+            heap[i] = heap[child];
+        }
+        heap[i] = top;
+    }
+
+    // whether index a goes before index b: the higher gain, then the smaller symbol
+    private static boolean byGainBefore(int a, int b, long[] symbols, long[] gains) {
+        if (gains[a] != gains[b])
+            return gains[a] > gains[b];
+        int cmp = Long.compareUnsigned(symbols[a], symbols[b]);
+        return cmp != 0 ? cmp < 0 : a < b;
+    }
+
+    private static int occurrences(Candidate c) {
+        return c.to - c.from;
+    }
+
+    // Select symbols and make an encoder of them. The terminator is a byte that does not occur in the sample, or
+    // else the least frequent one.
+    public FSSTEncoder buildEncoder() {
+        long[] symbols = select();
+        int[] lengths = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++)
+            lengths[i] = ToolboxUtils.getSymbolLength(symbols[i]);
+        return FSSTEncoder.fromSymbols(symbols.length, symbols, lengths, terminator());
+    }
+
+    int terminator() {
+        for (int b = 0; b < 256; b++)
+            if (!used[b])
+                return b;
+        int[] counts = new int[256];
+        for (int i = 0; i < size; i++)
+            counts[data[i] & 0xFF]++;
+        int terminator = 0;
+        for (int b = 1; b < 256; b++)
+            if (counts[b] < counts[terminator])
+                terminator = b;
+        return terminator;
+    }
+
+    // One candidate per interval of the suffix array that shares a prefix of 1 to 8 bytes without a 0, and that
+    // has a gain
+    Candidate[] candidates(int[] suffixArray, int[] lcp) {
+        Candidate[] candidates = new Candidate[1024];
+        int n = 0;
+        for (int len = 1; len <= MAX_LENGTH; len++) {
+            for (int from = 0, i = 1; i <= size; i++) {
+                if (i < size && lcp[i] >= len)
+                    continue;
+                // suffixArray[from, i) all start with the same len bytes
+                long symbol = ToolboxUtils.limitTo((long) LONG_LE.get(data, suffixArray[from]), len);
+                if (!ToolboxUtils.contains0(symbol, len) && ToolboxUtils.computeGain(len, i - from) > 0) {
+                    Candidate c = new Candidate();
+                    c.symbol = symbol;
+                    c.from = from;
+                    c.to = i;
+                    c.count = i - from;
+                    c.gain = ToolboxUtils.computeGain(len, c.count);
+                    if (n == candidates.length)
+                        candidates = Arrays.copyOf(candidates, 2 * n);
+                    candidates[n++] = c;
+                }
+                from = i;
+            }
+        }
+        return Arrays.copyOf(candidates, n);
+    }
+
+    // restore the heap below index i; equal gains go to the candidate that was found first
+    private static void siftDown(int[] heap, int heapSize, int i, Candidate[] candidates) {
+        int top = heap[i];
+        for (int child; (child = 2 * i + 1) < heapSize; i = child) {
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child], candidates))
+                child++;
+            if (!before(heap[child], top, candidates))
+                break;
+            heap[i] = heap[child];
+        }
+        heap[i] = top;
+    }
+
+    private static boolean before(int a, int b, Candidate[] candidates) {
+        int gainA = candidates[a].gain, gainB = candidates[b].gain;
+        return gainA > gainB || (gainA == gainB && a < b);
+    }
 }
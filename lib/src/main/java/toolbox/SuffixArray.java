@@ -0,0 +1,126 @@
+package toolbox;
+
+import java.util.Arrays;
+
+/// Suffix array construction by induced sorting (SA-IS, Nong, Zhang and Chan 2009), in linear time and on
+/// primitive arrays only.
+public class SuffixArray {
+
+    private SuffixArray() {
+    }
+
+    // The suffix array of data[0..n): the start positions of all suffixes, in lexicographic (unsigned) order
+    public static int[] build(byte[] data, int n) {
+        // shift the bytes up by one to make room for the sentinel 0, which sorts before every suffix
+        int[] s = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            s[i] = (data[i] & 0xFF) + 1;
+        int[] sa = new int[n + 1];
+        sais(s, sa, n + 1, 257);
+        return Arrays.copyOfRange(sa, 1, n + 1); // sa[0] is the sentinel
+    }
+
+    // sort the suffixes of s[0..n), where s[n-1] == 0 is the only 0 and all characters are below k
+    static void sais(int[] s, int[] sa, int n, int k) {
+        // S-type (true) or L-type suffix: smaller or larger than the next suffix
+        boolean[] t = new boolean[n];
+        t[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--)
+            t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+        int[] bucket = new int[k];
+
+        // stage 1: sort the LMS substrings by inducing from the LMS positions in any order
+        bucketEnds(s, n, bucket);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = 1; i < n; i++)
+            if (isLMS(t, i))
+                sa[--bucket[s[i]]] = i;
+        induce(s, t, sa, n, bucket);
+
+        // move the sorted LMS positions to the front and name the substrings, equal substrings get the same name
+        int n1 = 0;
+        for (int i = 0; i < n; i++)
+            if (isLMS(t, sa[i]))
+                sa[n1++] = sa[i];
+        Arrays.fill(sa, n1, n, -1);
+        int names = 0, prev = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = sa[i];
+            boolean diff = prev < 0;
+            for (int d = 0; !diff; d++) {
+                if (s[pos + d] != s[prev + d] || t[pos + d] != t[prev + d])
+                    diff = true;
+                else if (d > 0 && (isLMS(t, pos + d) || isLMS(t, prev + d)))
+                    break;
+            }
+            if (diff) {
+                names++;
+                prev = pos;
+            }
+            sa[n1 + (pos >> 1)] = names - 1; // LMS positions are at least 2 apart
+        }
+
+        // stage 2: sort the LMS suffixes, recursively if their substrings are not all different
+        int[] s1 = new int[n1];
+        for (int i = n1, j = 0; i < n; i++)
+            if (sa[i] >= 0)
+                s1[j++] = sa[i];
+        int[] sa1 = new int[n1];
+        if (names < n1)
+            sais(s1, sa1, n1, names);
+        else
+            for (int i = 0; i < n1; i++)
+                sa1[s1[i]] = i;
+
+        // stage 3: induce the order of all suffixes from the sorted LMS suffixes
+        for (int i = 1, j = 0; i < n; i++)
+            if (isLMS(t, i))
+                s1[j++] = i;
+        bucketEnds(s, n, bucket);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = n1 - 1; i >= 0; i--) {
+            int pos = s1[sa1[i]];
+            sa[--bucket[s[pos]]] = pos;
+        }
+        induce(s, t, sa, n, bucket);
+    }
+
+    private static boolean isLMS(boolean[] t, int i) {
+        return i > 0 && t[i] && !t[i - 1];
+    }
+
+    private static void bucketEnds(int[] s, int n, int[] bucket) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++)
+            bucket[s[i]]++;
+        for (int c = 0, sum = 0; c < bucket.length; c++)
+            bucket[c] = sum += bucket[c];
+    }
+
+    private static void bucketStarts(int[] s, int n, int[] bucket) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++)
+            bucket[s[i]]++;
+        for (int c = 0, sum = 0; c < bucket.length; c++) {
+            int count = bucket[c];
+            bucket[c] = sum;
+            sum += count;
+        }
+    }
+
+    // sort the L-type suffixes from left to right, then the S-type suffixes from right to left
+    private static void induce(int[] s, boolean[] t, int[] sa, int n, int[] bucket) {
+        bucketStarts(s, n, bucket);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !t[j])
+                sa[bucket[s[j]]++] = j;
+        }
+        bucketEnds(s, n, bucket);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && t[j])
+                sa[--bucket[s[j]]] = j;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package toolbox;
+
+/// Symbols with the sum of their gains: an open-addressing hash table on the symbol in primitive arrays, the layout
+/// of fsst.Candidates, so that counting the pairs of a parse boxes neither a symbol nor a gain.
+class SymbolGains {
+    private long[] symbols;
+    private long[] gains;
+    private boolean[] full;
+    private int mask;
+
+    private int[] used; // slots in use, in insertion order
+    private int size;
+
+    // A table for about expected symbols, it grows when there are more
+    SymbolGains(int expected) {
+        allocate(Integer.highestOneBit(Math.max(8, 2 * expected - 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        symbols = new long[capacity];
+        gains = new long[capacity];
+        full = new boolean[capacity];
+        used = new int[capacity / 2 + 1];
+        mask = capacity - 1;
+    }
+
+    private int slot(long symbol) {
+        int slot = (int) ((symbol * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (full[slot] && symbols[slot] != symbol)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // Add gain to the gain of symbol
+    void add(long symbol, long gain) {
+        int slot = slot(symbol);
+        if (full[slot]) {
+            gains[slot] += gain;
+            return;
+        }
+        symbols[slot] = symbol;
+        gains[slot] = gain;
+        full[slot] = true;
+        used[size++] = slot;
+        if (2 * size > mask)
+            grow();
+    }
+
+    private void grow() {
+        long[] oldSymbols = symbols, oldGains = gains;
+        int[] oldUsed = used;
+        allocate(2 * (mask + 1));
+        for (int i = 0; i < size; i++) {
+            int old = oldUsed[i], slot = slot(oldSymbols[old]);
+            symbols[slot] = oldSymbols[old];
+            gains[slot] = oldGains[old];
+            full[slot] = true;
+            used[i] = slot;
+        }
+    }
+
+    boolean contains(long symbol) {
+        return full[slot(symbol)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Symbol i, in insertion order
+    long symbol(int i) {
+        return symbols[used[i]];
+    }
+
+    // Gain of symbol i, in insertion order
+    long gain(int i) {
+        return gains[used[i]];
+    }
+}
@@ -1,28 +1,23 @@
 package toolbox;
 
-import java.util.Collections;
-
-import java.util.ArrayList;
-import java.util.List;
-
 public class ToolboxUtils {
 
-    public static List<Integer> computeLCP(List<Byte> data, List<Integer> suffixArray) {
-        // Compute the longest common prefix array
-        // Equivalent to ```inverseSuffixArray.resize(suffixArray.size());```
-        List<Integer> inverseSuffixArray = new ArrayList<>(Collections.nCopies(suffixArray.size(), 0));
-        for (int index = 0, limit = suffixArray.size(); index != limit; ++index)
-            inverseSuffixArray.set(suffixArray.get(index), index);
+    public static int[] computeLCP(byte[] data, int[] suffixArray) {
+        // Compute the longest common prefix array (Kasai et al.): lcp[i] is the length of the common prefix of the
+        // suffixes at suffixArray[i-1] and suffixArray[i], up to the first 0 byte. data must end with a 0.
+        int[] inverseSuffixArray = new int[suffixArray.length];
+        for (int index = 0, limit = suffixArray.length; index != limit; ++index)
+            inverseSuffixArray[suffixArray[index]] = index;
 
-        List<Integer> lcp = new ArrayList<>(Collections.nCopies(suffixArray.size(), 0));
+        int[] lcp = new int[suffixArray.length];
         int height = 0;
-        for (int index = 0, limit = suffixArray.size(); index != limit; ++index) {
-            int pos = inverseSuffixArray.get(index);
+        for (int index = 0, limit = suffixArray.length; index != limit; ++index) {
+            int pos = inverseSuffixArray[index];
             if (pos != 0) {
-                int index2 = suffixArray.get(pos - 1);
-                while ((data.get(index + height) == data.get(index2 + height)) && (data.get(index + height) != 0))
+                int index2 = suffixArray[pos - 1];
+                while ((data[index + height] == data[index2 + height]) && (data[index + height] != 0))
                     ++height;
-                lcp.set(pos, height);
+                lcp[pos] = height;
                 if (height > 0)
                     --height;
             }
@@ -36,6 +31,8 @@ public class ToolboxUtils {
     }
 
     static int computeGain(int len, int count) {
+        if (len == 1)
+            return count; // a single byte symbol saves the escape byte
         int saved = (len - 1) * count;
         return (len != 0 && saved > len) ? (saved - len) : 0;
     }
@@ -53,29 +50,45 @@ public class ToolboxUtils {
         final long highMask = 0x8080808080808080L;
         final long lowMask = 0x7F7F7F7F7F7F7F7FL;
         long high = v & highMask;
-        long couldBe0 = (~(v & lowMask) + lowMask) & highMask;
+        long couldBe0 = ~((v & lowMask) + lowMask) & highMask; // high bit set where the low 7 bits are 0
         return limitTo(couldBe0 & (~high), len) != 0;
     }
 
-    public static void recomputeGain(Candidate c, List<Integer> suffixArray, BitMask modified) {
-        // Recompute the gain of an entry
-        int len = (int) getSymbolLength(c.symbol); // Assuming getSymbolLen is defined elsewhere
-        int invalid = 0;
+    // Whether an occurrence of a symbol of length len at pos can still be used: nothing in it is taken, but for a
+    // shorter symbol starting at pos (taken[pos] bytes), which the compressor would skip for the longer match
+    static boolean isFree(int pos, int len, BitMask modified, byte[] taken) {
+        int prefix = taken[pos];
+        return prefix == 0 ? !modified.isAnyMarked(pos, len) : prefix < len && !modified.isAnyMarked(pos + prefix,
+                len - prefix);
+    }
+
+    public static void recomputeGain(Candidate c, int[] suffixArray, BitMask modified, byte[] taken) {
+        // Recompute the gain of an entry, counting the codes it saves over the symbols taken so far
+        int len = (int) getSymbolLength(c.symbol);
+        int count = 0, saved = 0;
 
         for (int i = c.from; i < c.to; i++) {
-            invalid += modified.isAnyMarked(suffixArray.get(i), len) ? 1 : 0;
+            int pos = suffixArray[i];
+            if (isFree(pos, len, modified, taken)) {
+                count++;
+                saved += taken[pos] == 0 ? len - 1 : len - taken[pos];
+            }
         }
 
-        c.count = (c.to - c.from) - invalid;
-        c.gain = computeGain(len, c.count); // Assuming computeGain is defined elsewhere
+        c.count = count;
+        c.gain = len == 1 ? count : Math.max(saved - len, 0);
     }
 
-    public static void invalidatePositions(Candidate c, List<Integer> suffixArray, BitMask modified) {
-        // Invalidate all positions
-        int len = (int) getSymbolLength(c.symbol); // Assuming getSymbolLen is defined elsewhere
+    public static void invalidatePositions(Candidate c, int[] suffixArray, BitMask modified, byte[] taken) {
+        // Take all positions that are still free
+        int len = (int) getSymbolLength(c.symbol);
 
         for (int i = c.from; i < c.to; i++) {
-            modified.mark(suffixArray.get(i), len);
+            int pos = suffixArray[i];
+            if (isFree(pos, len, modified, taken)) {
+                modified.mark(pos, len);
+                taken[pos] = (byte) len;
+            }
         }
     }
 
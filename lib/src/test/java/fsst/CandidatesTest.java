@@ -0,0 +1,35 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CandidatesTest {
+    @Test
+    public void pollsByGainThenValue() {
+        Candidates cands = new Candidates();
+        for (int round = 0; round < 2; round++) { // the second round reuses the (grown) arrays
+            cands.clear();
+            for (int i = 0; i < 10000; i++) {
+                cands.addOrInc(i % 5000, 2, i % 7); // every symbol twice
+                cands.addOrInc(-1L - i, 8, 1);
+            }
+            assertEquals(15000, cands.size);
+
+            cands.heapify();
+            long lastGain = Long.MAX_VALUE, lastValue = 0;
+            int n = 0;
+            while (!cands.isEmpty()) {
+                int slot = cands.poll();
+                long gain = cands.gains[slot], value = cands.values[slot];
+                assertTrue(gain < lastGain || (gain == lastGain && Long.compareUnsigned(value, lastValue) > 0));
+                if (cands.lens[slot] == 2)
+                    assertEquals((value % 7) + ((value + 5000) % 7), gain);
+                lastGain = gain;
+                lastValue = value;
+                n++;
+            }
+            assertEquals(15000, n);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedBlockTest {
+    @Test
+    public void randomAccess() {
+        int n = 1000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        inOffsets[500] = inOffsets[499]; // an empty string
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        byte[] bytes = CompressedBlock.encode(encoder, n, in, inOffsets);
+        assertTrue(bytes.length < in.length);
+
+        try (Arena arena = Arena.ofConfined()) { // e.g. a page read into off-heap memory
+            MemorySegment page = arena.allocate(bytes.length);
+            MemorySegment.copy(bytes, 0, page, ValueLayout.JAVA_BYTE, 0, bytes.length);
+            for (CompressedBlock block : new CompressedBlock[] { new CompressedBlock(bytes),
+                    new CompressedBlock(page) }) {
+                assertEquals(n, block.size());
+                for (int i = 0; i < n; i++)
+                    assertArrayEquals(Arrays.copyOfRange(in, inOffsets[i], inOffsets[i + 1]), block.get(i));
+
+                byte[] out = new byte[in.length + 32];
+                int[] outOffsets = new int[n + 1];
+                assertEquals(n - 10, block.decodeRange(10, n, out, outOffsets));
+                assertArrayEquals(Arrays.copyOfRange(in, inOffsets[10], inOffsets[n]),
+                        Arrays.copyOf(out, outOffsets[n - 10]));
+                assertEquals(inOffsets[20] - inOffsets[10], outOffsets[10]);
+
+                CompressedBlock.Cursor cursor = block.cursor();
+                cursor.seek(n - 300);
+                for (int i = n - 300; i < n; i++) {
+                    assertTrue(cursor.next());
+                    assertEquals(i, cursor.index());
+                    assertArrayEquals(Arrays.copyOfRange(in, inOffsets[i], inOffsets[i + 1]),
+                            Arrays.copyOf(cursor.value(), cursor.length()));
+                }
+                assertFalse(cursor.next());
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new CompressedBlock(new byte[100]));
+    }
+}
@@ -0,0 +1,69 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedKeyTableTest {
+    @Test
+    public void groupsCompressedKeys() {
+        int distinct = 700, n = 5000;
+        int[] urlOffsets = new int[distinct + 1];
+        byte[] urls = SymbolTableTest.urls(distinct, urlOffsets);
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int u = (int) (Symbol.FSST_HASH(i) % distinct);
+            rows.add(new String(urls, urlOffsets[u], urlOffsets[u + 1] - urlOffsets[u], StandardCharsets.US_ASCII));
+        }
+        int[] inOffsets = new int[n + 1];
+        byte[] in = String.join("", rows).getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < n; i++)
+            inOffsets[i + 1] = inOffsets[i] + rows.get(i).length();
+
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+
+        long[] hashes = new long[n];
+        CompressedHash.hash(n, out, outOffsets, hashes);
+        long[] segmentOffsets = Arrays.stream(outOffsets).asLongStream().toArray();
+        for (int i = 0; i < n; i++)
+            assertEquals(hashes[i], CompressedHash.hash(MemorySegment.ofArray(out), segmentOffsets[i],
+                    segmentOffsets[i + 1] - segmentOffsets[i]));
+
+        CompressedKeyTable table = new CompressedKeyTable(encoder.decoder());
+        int[] ids = new int[n];
+        table.add(n, out, outOffsets, ids);
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < n; i++)
+            assertEquals(expected.computeIfAbsent(rows.get(i), s -> expected.size()), ids[i], rows.get(i));
+        assertEquals(expected.size(), table.size());
+
+        int[] segmentIds = new int[n];
+        table.add(n, MemorySegment.ofArray(out), segmentOffsets, segmentIds);
+        assertArrayEquals(ids, segmentIds);
+        assertEquals(expected.size(), table.size());
+
+        byte[] keys = new byte[in.length + 32];
+        int[] keyOffsets = new int[table.size() + 1];
+        assertEquals(table.size(), table.decodeKeys(keys, keyOffsets));
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            int id = entry.getValue();
+            assertEquals(entry.getKey(), new String(keys, keyOffsets[id], keyOffsets[id + 1] - keyOffsets[id],
+                    StandardCharsets.US_ASCII));
+            assertEquals(entry.getKey(), new String(table.key(id), StandardCharsets.US_ASCII));
+            byte[] compressed = table.compressedKey(id);
+            assertEquals(id, table.find(compressed, 0, compressed.length));
+        }
+        assertEquals(-1, table.find(new byte[] { 1, 2, 3 }, 0, 3));
+    }
+}
@@ -0,0 +1,65 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedPredicateTest {
+    int n = 3000;
+    int[] inOffsets = new int[n + 1];
+    byte[] in = SymbolTableTest.urls(n, inOffsets);
+    FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+    int[] outOffsets = new int[n + 1];
+    byte[] out = new byte[7 + 2 * in.length];
+
+    CompressedPredicateTest() {
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+    }
+
+    // evaluate on the compressed strings and check the selection against the uncompressed ones
+    void check(CompressedPredicate predicate, byte[] constant, boolean prefix) {
+        int[] expected = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int len = prefix ? Math.min(constant.length, inOffsets[i + 1] - inOffsets[i])
+                    : inOffsets[i + 1] - inOffsets[i];
+            if ((!prefix || len == constant.length)
+                    && Arrays.equals(in, inOffsets[i], inOffsets[i] + len, constant, 0, constant.length))
+                expected[count++] = i;
+        }
+        int[] selection = new int[n];
+        assertEquals(count, predicate.select(n, out, outOffsets, selection), new String(constant));
+        assertArrayEquals(Arrays.copyOf(expected, count), Arrays.copyOf(selection, count));
+
+        long[] segmentOffsets = Arrays.stream(outOffsets).asLongStream().toArray();
+        assertEquals(count, predicate.select(n, MemorySegment.ofArray(out), segmentOffsets, selection));
+        assertArrayEquals(Arrays.copyOf(expected, count), Arrays.copyOf(selection, count));
+    }
+
+    @Test
+    public void equalTo() {
+        for (int i : new int[] { 0, 17, 1234, n - 1 }) {
+            byte[] constant = Arrays.copyOfRange(in, inOffsets[i], inOffsets[i + 1]);
+            check(CompressedPredicate.equalTo(encoder, constant), constant, false);
+        }
+        byte[] escaped = "https://www.\u0001".getBytes(StandardCharsets.US_ASCII);
+        check(CompressedPredicate.equalTo(encoder, escaped), escaped, false);
+    }
+
+    @Test
+    public void startsWith() {
+        int i = 1234;
+        for (int len = 0; len <= inOffsets[i + 1] - inOffsets[i]; len++) {
+            byte[] prefix = Arrays.copyOfRange(in, inOffsets[i], inOffsets[i] + len);
+            check(CompressedPredicate.startsWith(encoder, prefix), prefix, true);
+        }
+        for (String s : new String[] { "https://www.q", "x", "https://www.\u0001", "https://www.user/" }) {
+            byte[] prefix = s.getBytes(StandardCharsets.US_ASCII);
+            check(CompressedPredicate.startsWith(encoder, prefix), prefix, true);
+        }
+    }
+}
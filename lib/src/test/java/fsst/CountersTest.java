@@ -0,0 +1,59 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountersTest {
+    @Test
+    public void getNextSkipsZeroCounters() {
+        Counters counters = new Counters();
+        for (int i = 0; i < 300; i++)
+            counters.count1Inc(100);
+        for (int i = 0; i < 1000; i++)
+            counters.count2Inc(7, 301);
+
+        int pos1 = 0, cnt1 = 0;
+        while (cnt1 == 0) {
+            long next = counters.count1GetNext(pos1);
+            pos1 = (int) (next >>> 32) + 1;
+            cnt1 = (int) next;
+        }
+        assertEquals(101, pos1);
+        assertEquals(300, cnt1);
+
+        int pos2 = 0, cnt2 = 0;
+        while (cnt2 == 0) {
+            long next = counters.count2GetNext(7, pos2);
+            pos2 = (int) (next >>> 32) + 1;
+            cnt2 = (int) next;
+        }
+        assertEquals(302, pos2);
+        assertEquals(1000, cnt2);
+    }
+
+    @Test
+    public void mergeEqualsCountingTogether() {
+        Counters together = new Counters(), a = new Counters(), b = new Counters();
+        for (int i = 0; i < 2000; i++) {
+            int pos1 = i % 13, pos2 = (i * 7) % 509;
+            Counters part = i % 3 == 0 ? a : b;
+            together.count1Inc(pos1);
+            part.count1Inc(pos1);
+            together.count2Inc(pos1, pos2);
+            together.count2Inc(pos1, 3);
+            part.count2Inc(pos1, pos2);
+            part.count2Inc(pos1, 3);
+        }
+        a.merge(b);
+        assertArrayEquals(together.count1High, a.count1High);
+        assertArrayEquals(together.count1Low, a.count1Low);
+        assertArrayEquals(together.count2High, a.count2High);
+        assertArrayEquals(together.count2Low, a.count2Low);
+
+        a.clear();
+        assertArrayEquals(new Counters().count2Low, a.count2Low);
+        assertArrayEquals(new Counters().count2High, a.count2High);
+        assertEquals(0, a.nTouched);
+    }
+}
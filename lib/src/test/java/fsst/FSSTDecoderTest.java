@@ -0,0 +1,140 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTDecoderTest {
+    // code 0: "http://", code 1: "www.", code 2: ".com", code 3: "e"
+    static FSSTDecoder sampleDecoder() {
+        FSSTDecoder decoder = new FSSTDecoder();
+        String[] symbols = { "http://", "www.", ".com", "e" };
+        for (int code = 0; code < symbols.length; code++) {
+            byte[] bytes = symbols[code].getBytes(StandardCharsets.US_ASCII);
+            long value = 0;
+            for (int i = 0; i < bytes.length; i++)
+                value |= (bytes[i] & 0xFFL) << (8 * i);
+            decoder.symbol[code] = value;
+            decoder.len[code] = (char) bytes.length;
+        }
+        return decoder;
+    }
+
+    @Test
+    public void decompressWithEscapes() {
+        FSSTDecoder decoder = sampleDecoder();
+        // "http://www.exampe.com" with every byte of "xamp" escaped
+        byte[] in = { 0, 1, 3, (byte) 255, 'x', (byte) 255, 'a', (byte) 255, 'm', (byte) 255, 'p', 3, 2 };
+        byte[] out = new byte[64];
+        int n = decoder.decompress(in, 0, in.length, out, 0);
+        assertEquals("http://www.exampe.com", new String(out, 0, n, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void decompressLongInputAtOffset() {
+        FSSTDecoder decoder = sampleDecoder();
+        StringBuilder expected = new StringBuilder();
+        byte[] in = new byte[2 + 300];
+        for (int i = 0; i < 100; i++) {
+            in[2 + 3 * i] = 0;
+            in[2 + 3 * i + 1] = (byte) 255;
+            in[2 + 3 * i + 2] = (byte) ('a' + i % 26);
+            expected.append("http://").append((char) ('a' + i % 26));
+        }
+        byte[] out = new byte[5 + 1000];
+        int n = decoder.decompress(in, 2, 300, out, 5);
+        assertEquals(expected.length(), n);
+        assertEquals(expected.toString(), new String(out, 5, n, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void decompressTruncatesToOutput() {
+        FSSTDecoder decoder = sampleDecoder();
+        byte[] in = { 0, 1, 2 };
+        byte[] out = new byte[10];
+        int n = decoder.decompress(in, 0, in.length, out, 0);
+        assertEquals(15, n, "full decompressed size is reported");
+        assertEquals("http://www", new String(out, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void decompressAllMatchesOneByOne() {
+        FSSTDecoder decoder = sampleDecoder();
+        for (int n : new int[] { 0, 1, 3, 1000 }) {
+            // string i: i%5 codes, alternating symbols and escapes
+            byte[] in = new byte[6 * n];
+            int[] inOffsets = new int[n + 1];
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < i % 5; j++) {
+                    if ((i + j) % 3 == 0) {
+                        in[pos++] = (byte) 255;
+                        in[pos++] = (byte) ('a' + (i + j) % 26);
+                    } else {
+                        in[pos++] = (byte) ((i + j) % 4);
+                    }
+                }
+                inOffsets[i + 1] = pos;
+            }
+            byte[] expected = new byte[8 * 6 * n + 2];
+            int expectedLen = 2;
+            for (int i = 0; i < n; i++)
+                expectedLen += decoder.decompress(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i], expected,
+                        expectedLen);
+
+            byte[] out = new byte[expectedLen];
+            int[] outOffsets = new int[n + 1];
+            outOffsets[0] = 2;
+            assertEquals(n, decoder.decompressAll(n, inOffsets, in, out, outOffsets));
+            assertEquals(expectedLen, outOffsets[n]);
+            for (int i = 2; i < expectedLen; i++)
+                assertEquals(expected[i], out[i], "byte " + i);
+        }
+    }
+
+    @Test
+    public void decompressAllStopsWhenOutputIsFull() {
+        FSSTDecoder decoder = sampleDecoder();
+        byte[] in = { 0, 1, 2, 3 };
+        int[] inOffsets = { 0, 1, 3, 4 };
+        byte[] out = new byte[12];
+        int[] outOffsets = new int[4];
+        assertEquals(1, decoder.decompressAll(3, inOffsets, in, out, outOffsets));
+        assertEquals(7, outOffsets[1]);
+        assertEquals("http://", new String(out, 0, 7, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void importExportedTable() {
+        SymbolTable symbolTable = FSSTEncoderTest.sampleTable();
+        FSSTDecoder expected = FSSTEncoderTest.decoderFor(symbolTable);
+        byte[] header = new byte[3 + FSSTEncoder.FSST_MAXHEADER];
+        int n = new FSSTEncoder(symbolTable).export(header, 3);
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segment = arena.allocate(n).copyFrom(MemorySegment.ofArray(header).asSlice(3, n));
+            ByteBuffer direct = ByteBuffer.allocateDirect(n + 5).put(header, 3, n).flip();
+            FSSTDecoder[] decoders = { new FSSTDecoder(), new FSSTDecoder(), new FSSTDecoder() };
+            assertEquals(n, decoders[0].import_from_buffer(header, 3));
+            assertEquals(n, decoders[1].import_from_buffer(segment, 0)); // ends right after the symbols
+            assertEquals(n, decoders[2].import_from_buffer(direct));
+            assertEquals(0, direct.position());
+            for (FSSTDecoder decoder : decoders) {
+                for (int code = 0; code < symbolTable.nSymbols; code++) {
+                    assertEquals(expected.symbol[code], decoder.symbol[code]);
+                    assertEquals(expected.len[code], decoder.len[code]);
+                }
+                for (int code = symbolTable.nSymbols; code < 255; code++)
+                    assertEquals(FSSTDecoder.FSST_CORRUPT, decoder.symbol[code]);
+            }
+        }
+
+        header[3 + 4]++; // another version
+        assertEquals(0, new FSSTDecoder().import_from_buffer(header, 3));
+    }
+}
@@ -0,0 +1,291 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTEncoderTest {
+    static final String[] SYMBOLS = { "http://", "www.", ".com", "ab", "e", "ex" };
+
+    static SymbolTable sampleTable() {
+        SymbolTable symbolTable = new SymbolTable();
+        for (String symbol : SYMBOLS) {
+            byte[] bytes = symbol.getBytes(StandardCharsets.US_ASCII);
+            assertTrue(symbolTable.add(new Symbol(bytes, 0, bytes.length)));
+        }
+        symbolTable.finalize(0);
+        return symbolTable;
+    }
+
+    static FSSTDecoder decoderFor(SymbolTable symbolTable) {
+        FSSTDecoder decoder = new FSSTDecoder();
+        for (int code = 0; code < symbolTable.nSymbols; code++) {
+            decoder.symbol[code] = symbolTable.symbols[code].value;
+            decoder.len[code] = (char) symbolTable.symbols[code].length();
+        }
+        return decoder;
+    }
+
+    static String[] sampleStrings() {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            longString.append("http://www.ex").append(i).append(".com/");
+        return new String[] { "http://www.example.com", "", "abab", "ab", "e", "zzz", longString.toString(),
+                "www.abc.com" };
+    }
+
+    @Test
+    public void arenaRoundTrip() {
+        String[] strings = sampleStrings();
+        int[] inOffsets = new int[strings.length + 1];
+        byte[] in = String.join("", strings).getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < strings.length; i++)
+            inOffsets[i + 1] = inOffsets[i] + strings[i].length();
+
+        SymbolTable symbolTable = sampleTable();
+        FSSTDecoder decoder = decoderFor(symbolTable);
+        boolean[][] variants = { { false, false }, { true, false }, { false, true } };
+        for (boolean[] variant : variants) {
+            byte[] out = new byte[7 + 2 * in.length + 3];
+            int[] outOffsets = new int[strings.length + 1];
+            outOffsets[0] = 3;
+            int n = FSSTEncoder.compressBulk(symbolTable.compact(), strings.length, in, inOffsets, out, outOffsets,
+                    variant[0], variant[1]);
+            assertEquals(strings.length, n);
+
+            byte[] decoded = new byte[in.length + 32];
+            for (int i = 0; i < strings.length; i++) {
+                int len = decoder.decompress(out, outOffsets[i], outOffsets[i + 1] - outOffsets[i], decoded, 0);
+                assertEquals(strings[i], new String(decoded, 0, len, StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    @Test
+    public void arenaMatchesLineByLine() {
+        String[] strings = sampleStrings();
+        SymbolTable symbolTable = sampleTable();
+        FSSTEncoder encoder = new FSSTEncoder(symbolTable);
+
+        long[] lenIn = new long[strings.length];
+        byte[][] strIn = new byte[strings.length][];
+        int[] inOffsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            strIn[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+            lenIn[i] = strIn[i].length;
+            inOffsets[i + 1] = inOffsets[i] + strIn[i].length;
+        }
+        byte[] in = String.join("", strings).getBytes(StandardCharsets.US_ASCII);
+
+        byte[] lineOut = new byte[7 + 2 * in.length];
+        long[] lenOut = new long[strings.length];
+        assertEquals(strings.length, encoder.fsst_compress(strings.length, lenIn, strIn, lineOut.length, lineOut,
+                lenOut, null));
+
+        byte[] arenaOut = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[strings.length + 1];
+        assertEquals(strings.length, encoder.fsst_compress(strings.length, in, inOffsets, arenaOut, outOffsets));
+        for (int i = 0; i < strings.length; i++)
+            assertEquals(lenOut[i], outOffsets[i + 1] - outOffsets[i]);
+        assertArrayEquals(Arrays.copyOf(lineOut, outOffsets[strings.length]),
+                Arrays.copyOf(arenaOut, outOffsets[strings.length]));
+    }
+
+    @Test
+    public void arenaStopsWhenOutputIsFull() {
+        byte[] in = "http://www.example.com".getBytes(StandardCharsets.US_ASCII);
+        int[] inOffsets = { 0, 11, in.length };
+        byte[] out = new byte[2 * 11 + 7];
+        int[] outOffsets = new int[3];
+        assertEquals(1, FSSTEncoder.compressBulk(sampleTable().compact(), 2, in, inOffsets, out, outOffsets, false, false));
+        assertEquals(2, outOffsets[1], "http:// and www. are single codes");
+    }
+
+    @Test
+    public void segmentMatchesArena() {
+        String[] strings = sampleStrings();
+        byte[] in = String.join("", strings).getBytes(StandardCharsets.US_ASCII);
+        int[] inOffsets = new int[strings.length + 1];
+        long[] segInOffsets = new long[strings.length + 1];
+        for (int i = 0; i < strings.length; i++) {
+            inOffsets[i + 1] = inOffsets[i] + strings[i].length();
+            segInOffsets[i + 1] = inOffsets[i + 1];
+        }
+        FSSTEncoder encoder = new FSSTEncoder(sampleTable());
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[strings.length + 1];
+        assertEquals(strings.length, encoder.fsst_compress(strings.length, in, inOffsets, out, outOffsets));
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment segIn = arena.allocate(in.length);
+            MemorySegment.copy(in, 0, segIn, ValueLayout.JAVA_BYTE, 0, in.length);
+            MemorySegment segOut = arena.allocate(out.length);
+            long[] segOutOffsets = new long[strings.length + 1];
+            assertEquals(strings.length, encoder.fsst_compress(strings.length, segIn, segInOffsets, segOut,
+                    segOutOffsets));
+            for (int i = 0; i <= strings.length; i++)
+                assertEquals(outOffsets[i], segOutOffsets[i]);
+            assertArrayEquals(Arrays.copyOf(out, outOffsets[strings.length]),
+                    segOut.asSlice(0, segOutOffsets[strings.length]).toArray(ValueLayout.JAVA_BYTE));
+
+            MemorySegment decoded = arena.allocate(in.length + 32);
+            long[] decodedOffsets = new long[strings.length + 1];
+            FSSTDecoder decoder = decoderFor(sampleTable());
+            assertEquals(strings.length, decoder.decompress(strings.length, segOut, segOutOffsets, decoded,
+                    decodedOffsets));
+            assertArrayEquals(in, decoded.asSlice(0, in.length).toArray(ValueLayout.JAVA_BYTE));
+            for (int i = 0; i <= strings.length; i++)
+                assertEquals(inOffsets[i], decodedOffsets[i]);
+        }
+    }
+
+    @Test
+    public void compactTable() {
+        SymbolTable symbolTable = sampleTable();
+        CompactSymbolTable table = symbolTable.compact();
+        assertEquals(symbolTable.nSymbols, table.nSymbols);
+        for (int code = 0; code < symbolTable.nSymbols; code++) {
+            assertEquals(symbolTable.symbols[code].value, table.symbolValues[code]);
+            assertEquals(symbolTable.symbols[code].length(), table.symbolLens[code]);
+        }
+        for (int i = 0; i < 65536; i++)
+            assertEquals(symbolTable.shortCodes[i], table.shortCodes[i]);
+        assertTrue(table.footprintBytes() < 150_000, "compact table takes " + table.footprintBytes() + " bytes");
+    }
+
+    @Test
+    public void probedVariant() {
+        int n = 2000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        CompressionVariant.Choice heuristic = encoder.variant();
+        assertFalse(heuristic.probed());
+        assertTrue(heuristic.reason().startsWith("heuristic"));
+        assertSame(heuristic, encoder.duplicate().variant());
+
+        // too little to time (also with -Dfsst.adaptive=true): nothing is probed
+        byte[] small = new byte[7 + 2 * inOffsets[10]];
+        assertEquals(10, encoder.fsst_compress(10, in, inOffsets, small, new int[11]));
+        assertEquals(0, encoder.fsst_compress(0, in, inOffsets, small, new int[1]));
+        assertSame(heuristic, encoder.probeVariant(10, in, inOffsets));
+        assertSame(heuristic, encoder.variant());
+
+        byte[] expected = new byte[7 + 2 * in.length];
+        int[] expectedOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, expected, expectedOffsets));
+
+        CompressionVariant.Choice probed = encoder.probeVariant(n, in, inOffsets);
+        assertTrue(probed.probed());
+        for (CompressionVariant variant : CompressionVariant.values())
+            assertTrue(probed.reason().contains(variant + " "), probed.reason());
+        assertSame(probed, encoder.duplicate().variant());
+        byte[] out = new byte[expected.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+        assertArrayEquals(expectedOffsets, outOffsets); // the variants may leave different bytes after the end
+        assertArrayEquals(Arrays.copyOf(expected, expectedOffsets[n]), Arrays.copyOf(out, outOffsets[n]));
+
+        // off-heap, and a first string larger than the probe
+        byte[] large = new byte[3 * FSSTEncoder.PROBE_BYTES];
+        for (int i = 0; i < large.length; i += in.length)
+            System.arraycopy(in, 0, large, i, Math.min(in.length, large.length - i));
+        MemorySegment segment = MemorySegment.ofArray(large);
+        assertTrue(encoder.probeVariant(1, segment, new long[] { 0, large.length }).probed());
+        assertTrue(encoder.probeVariant(1, large, new int[] { 0, large.length }).reason()
+                .startsWith("probe of " + FSSTEncoder.PROBE_BYTES + " bytes"));
+    }
+
+    @Test
+    public void bucketEngine() {
+        // a trained table holds at most one symbol per hash slot: both engines find the same symbols
+        int n = 2000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        FSSTEncoder hash = new FSSTEncoder(n, in, inOffsets, 0);
+        FSSTEncoder buckets = hash.withEngine(MatchEngine.BUCKETS);
+        assertSame(hash, hash.withEngine(MatchEngine.HASH));
+        assertEquals(MatchEngine.BUCKETS, buckets.engine());
+        byte[] expected = new byte[7 + 2 * in.length];
+        int[] expectedOffsets = new int[n + 1];
+        assertEquals(n, hash.fsst_compress(n, in, inOffsets, expected, expectedOffsets));
+        byte[] out = new byte[expected.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, buckets.fsst_compress(n, in, inOffsets, out, outOffsets));
+        assertArrayEquals(expectedOffsets, outOffsets);
+        assertArrayEquals(Arrays.copyOf(expected, expectedOffsets[n]), Arrays.copyOf(out, outOffsets[n]));
+        MemorySegment segOut = MemorySegment.ofArray(new byte[expected.length]);
+        long[] segInOffsets = new long[n + 1], segOutOffsets = new long[n + 1];
+        for (int i = 0; i <= n; i++)
+            segInOffsets[i] = inOffsets[i];
+        assertEquals(n, buckets.fsst_compress(n, MemorySegment.ofArray(in), segInOffsets, segOut, segOutOffsets));
+        assertArrayEquals(Arrays.copyOf(expected, expectedOffsets[n]),
+                segOut.asSlice(0, segOutOffsets[n]).toArray(ValueLayout.JAVA_BYTE));
+
+        // symbols that share their first 3 bytes share a hash slot, only the bucket engine keeps them all
+        String[] symbols = { "http://", "https://", "http://w", ".com", "w", "e", "x", "a", "m", "p", "l", "s" };
+        long[] values = new long[symbols.length];
+        int[] lengths = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            byte[] bytes = symbols[i].getBytes(StandardCharsets.US_ASCII);
+            for (int j = 0; j < bytes.length; j++)
+                values[i] |= (bytes[j] & 0xFFL) << (8 * j);
+            lengths[i] = bytes.length;
+        }
+        FSSTEncoder lossy = FSSTEncoder.fromSymbols(symbols.length, values, lengths, 0);
+        FSSTEncoder lossless = FSSTEncoder.fromSymbols(symbols.length, values, lengths, 0, MatchEngine.BUCKETS);
+        assertEquals(symbols.length - 2, lossy.table.nSymbols);
+        assertEquals(symbols.length, lossless.table.nSymbols);
+
+        String[] strings = { "http://www.example.com", "https://example.com", "http://example.com", "axe" };
+        byte[] sample = String.join("", strings).getBytes(StandardCharsets.US_ASCII);
+        int[] sampleOffsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++)
+            sampleOffsets[i + 1] = sampleOffsets[i] + strings[i].length();
+        assertEquals(strings.length, lossy.fsst_compress(strings.length, sample, sampleOffsets, out, outOffsets));
+        int lossyBytes = outOffsets[strings.length];
+        assertEquals(strings.length, lossless.fsst_compress(strings.length, sample, sampleOffsets, out, outOffsets));
+        assertTrue(outOffsets[strings.length] < lossyBytes, outOffsets[strings.length] + " >= " + lossyBytes);
+        byte[] decoded = new byte[sample.length + 8];
+        int[] decodedOffsets = new int[strings.length + 1];
+        assertEquals(strings.length, lossless.decoder().decompressAll(strings.length, outOffsets, out, decoded,
+                decodedOffsets));
+        assertArrayEquals(sample, Arrays.copyOf(decoded, decodedOffsets[strings.length]));
+    }
+
+    @Test
+    public void sharedAcrossVirtualThreads() throws Exception {
+        int n = 500;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        byte[] expected = new byte[7 + 2 * in.length];
+        int[] expectedOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, expected, expectedOffsets));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?>[] tasks = new Future<?>[1000];
+            for (int t = 0; t < tasks.length; t++) {
+                FSSTEncoder e = t % 2 == 0 ? encoder : encoder.duplicate();
+                tasks[t] = executor.submit(() -> {
+                    byte[] out = new byte[expected.length];
+                    int[] outOffsets = new int[n + 1];
+                    assertEquals(n, e.fsst_compress(n, in, inOffsets, out, outOffsets));
+                    assertArrayEquals(expected, out);
+                    return null;
+                });
+            }
+            for (Future<?> task : tasks)
+                task.get();
+        }
+    }
+}
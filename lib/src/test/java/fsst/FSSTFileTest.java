@@ -0,0 +1,72 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void roundTrip() throws IOException {
+        int n = 20000;
+        int[] offsets = new int[n + 1];
+        byte[] urls = SymbolTableTest.urls(n, offsets);
+        byte[] lines = new byte[urls.length + n - 1 + 3000]; // newline-delimited, no newline after the last line
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == n / 2) { // and a line longer than a chunk
+                Arrays.fill(lines, pos, pos + 3000, (byte) 'x');
+                pos += 3000;
+            }
+            System.arraycopy(urls, offsets[i], lines, pos, offsets[i + 1] - offsets[i]);
+            pos += offsets[i + 1] - offsets[i];
+            if (i < n - 1)
+                lines[pos++] = '\n';
+        }
+        Path input = Files.write(dir.resolve("lines.txt"), lines);
+        Path compressed = dir.resolve("lines.fsst"), decompressed = dir.resolve("lines.out");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            long size = FSSTFile.compress(input, compressed, pool, 2048);
+            assertEquals(Files.size(compressed), size);
+            assertTrue(size < lines.length / 2);
+            assertEquals(lines.length, FSSTFile.decompress(compressed, decompressed, pool));
+            assertArrayEquals(lines, Files.readAllBytes(decompressed));
+
+            Files.write(input, new byte[0]);
+            FSSTFile.compress(input, compressed, pool, 2048);
+            assertEquals(0, FSSTFile.decompress(compressed, decompressed, pool));
+            assertEquals(0, Files.size(decompressed));
+
+            assertThrows(IOException.class, () -> FSSTFile.decompress(decompressed, input, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectsCorruptDirectory() throws IOException {
+        Path input = Files.write(dir.resolve("lines.txt"), "a line\nand another\n".getBytes());
+        Path compressed = dir.resolve("lines.fsst"), decompressed = dir.resolve("lines.out");
+        FSSTFile.compress(input, compressed);
+        byte[] file = Files.readAllBytes(compressed);
+        ByteBuffer footer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        for (long nChunks : new long[] { 1L << 61, -1, Integer.MAX_VALUE, file.length / 8 }) {
+            footer.putLong(file.length - 16, nChunks); // 1L << 61 chunks take 0 bytes in 64 bits
+            Files.write(compressed, file);
+            assertThrows(IOException.class, () -> FSSTFile.decompress(compressed, decompressed), "" + nChunks);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTInputStreamTest {
+    int n = 2000;
+    int[] inOffsets = new int[n + 1];
+    byte[] in = SymbolTableTest.urls(n, inOffsets);
+    byte[] stream;
+
+    FSSTInputStreamTest() throws IOException {
+        in = Arrays.copyOf(in, in.length + 5000); // and a last record that is larger than the buffer
+        byte[] noise = new byte[5000];
+        new Random(42).nextBytes(noise);
+        System.arraycopy(noise, 0, in, in.length - 5000, 5000);
+        inOffsets[n] = in.length;
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (FSSTOutputStream out = new FSSTOutputStream(new FSSTEncoder(n, in, inOffsets, 0),
+                Channels.newChannel(sink), 1024)) {
+            for (int i = 0; i < n; i++) {
+                out.write(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]);
+                out.endRecord();
+            }
+        }
+        stream = sink.toByteArray();
+    }
+
+    @Test
+    public void readsRecords() throws IOException {
+        try (FSSTInputStream records = new FSSTInputStream(Channels.newChannel(new ByteArrayInputStream(stream)),
+                1024)) {
+            Iterator<ByteBuffer> it = records.recordIterator();
+            for (int i = 0; i < n; i++) {
+                assertTrue(it.hasNext());
+                ByteBuffer record = it.next();
+                assertEquals(inOffsets[i + 1] - inOffsets[i], record.remaining());
+                assertEquals(ByteBuffer.wrap(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]), record);
+            }
+            assertFalse(it.hasNext());
+            assertNull(records.nextRecord());
+            assertEquals(n, records.records());
+        }
+    }
+
+    @Test
+    public void readsConcatenatedBytes() throws IOException {
+        try (FSSTInputStream decoded = new FSSTInputStream(new ByteArrayInputStream(stream))) {
+            assertEquals(in[0], decoded.read());
+            byte[] rest = decoded.readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(in, 1, in.length), rest);
+            assertEquals(-1, decoded.read());
+        }
+
+        byte[] truncated = Arrays.copyOf(stream, stream.length - 1);
+        FSSTInputStream decoded = new FSSTInputStream(new ByteArrayInputStream(truncated));
+        assertThrows(IOException.class, decoded::readAllBytes);
+        assertThrows(IOException.class, () -> new FSSTInputStream(new ByteArrayInputStream(new byte[10])));
+    }
+
+    @Test
+    public void rejectsLengthsBeyondAnInt() throws IOException {
+        int header = FSSTDecoder.exportedSize(MemorySegment.ofArray(stream), 0);
+        byte[][] lengths = { { -1, -1, -1, -1, 0x7F }, { -128, -128, -128, -128, 0x10 }, { -1, -1, -1, -1, -1, 1 } };
+        for (byte[] length : lengths) {
+            byte[] corrupt = Arrays.copyOf(stream, header + length.length + 64);
+            System.arraycopy(length, 0, corrupt, header, length.length);
+            FSSTInputStream records = new FSSTInputStream(new ByteArrayInputStream(corrupt));
+            IOException e = assertThrows(IOException.class, records::nextRecord, Arrays.toString(length));
+            assertEquals("corrupt record length", e.getMessage());
+        }
+    }
+}
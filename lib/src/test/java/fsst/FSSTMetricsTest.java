@@ -0,0 +1,76 @@
+package fsst;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTMetricsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void countsCodes() {
+        int n = 1000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+
+        FSSTMetrics metrics = new FSSTMetrics();
+        metrics.compressed(n, in.length, out, 0, outOffsets[n], encoder.table.symbolLens, 5);
+        assertEquals(n, metrics.lines());
+        assertEquals(in.length, metrics.bytesIn());
+        assertEquals(outOffsets[n], metrics.bytesOut());
+        long decoded = metrics.escapes(), codes = 2 * metrics.escapes();
+        for (int length = 1; length <= Symbol.maxLength; length++) {
+            decoded += length * metrics.hits(length);
+            codes += metrics.hits(length);
+        }
+        assertEquals(in.length, decoded);
+        assertEquals(outOffsets[n], codes);
+        assertEquals(5, metrics.compressNanos());
+    }
+
+    @Test
+    public void emitsEvents() throws IOException {
+        int n = 1000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        Path file = dir.resolve("fsst.jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : new String[] { "fsst.Training", "fsst.Compress", "fsst.Decompress" })
+                recording.enable(event).withoutThreshold();
+            recording.start();
+            FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+            byte[] out = new byte[7 + 2 * in.length];
+            int[] outOffsets = new int[n + 1];
+            assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+            int[] decodedOffsets = new int[n + 1];
+            assertEquals(n, encoder.decoder().decompressAll(n, outOffsets, out, new byte[in.length + 32],
+                    decodedOffsets));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertEquals(5, events.stream().filter(e -> e.getEventType().getName().equals("fsst.Training")).count());
+        RecordedEvent compress = events.stream().filter(e -> e.getEventType().getName().equals("fsst.Compress"))
+                .findFirst().orElseThrow();
+        assertEquals(n, compress.getInt("lines"));
+        assertEquals(in.length, compress.getLong("bytesIn"));
+        RecordedEvent decompress = events.stream()
+                .filter(e -> e.getEventType().getName().equals("fsst.Decompress")).findFirst().orElseThrow();
+        assertEquals(in.length, decompress.getLong("bytesOut"));
+        assertEquals(compress.getLong("bytesOut"), decompress.getLong("bytesIn"));
+    }
+}
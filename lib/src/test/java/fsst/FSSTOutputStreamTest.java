@@ -0,0 +1,62 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FSSTOutputStreamTest {
+    @Test
+    public void framesRecordsLikeCompressBulk() throws Exception {
+        int n = 2000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        in = Arrays.copyOf(in, in.length + 3000); // and a long last record
+        Arrays.fill(in, inOffsets[n - 1], in.length, (byte) 'x');
+        inOffsets[n] = in.length;
+
+        FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, 0);
+        byte[] expected = new byte[7 + 2 * in.length];
+        int[] expectedOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, expected, expectedOffsets));
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (FSSTOutputStream out = new FSSTOutputStream(encoder, Channels.newChannel(sink), 1024)) {
+            for (int i = 0; i < n; i++) {
+                int start = inOffsets[i], end = inOffsets[i + 1];
+                if (i % 3 == 0) { // byte by byte, then as a ByteBuffer
+                    for (int j = start; j < Math.min(end, start + 10); j++)
+                        out.write(in[j]);
+                    out.write(ByteBuffer.wrap(in, Math.min(end, start + 10), Math.max(0, end - start - 10)));
+                } else {
+                    out.write(in, start, end - start);
+                }
+                if (i < n - 1)
+                    out.endRecord();
+            }
+        } // close() ends the last record
+        byte[] stream = sink.toByteArray();
+
+        FSSTDecoder decoder = new FSSTDecoder();
+        int pos = decoder.import_from_buffer(stream, 0);
+        assertTrue(pos > 0);
+        for (int i = 0; i < n; i++) {
+            int len = 0;
+            for (int shift = 0; true; shift += 7) {
+                byte b = stream[pos++];
+                len |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    break;
+            }
+            assertEquals(expectedOffsets[i + 1] - expectedOffsets[i], len);
+            assertArrayEquals(Arrays.copyOfRange(expected, expectedOffsets[i], expectedOffsets[i + 1]),
+                    Arrays.copyOfRange(stream, pos, pos + len));
+            pos += len;
+        }
+        assertEquals(stream.length, pos);
+    }
+}
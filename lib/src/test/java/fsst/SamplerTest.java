@@ -0,0 +1,78 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SamplerTest {
+    static List<ByteBuffer> strings(int n) {
+        List<ByteBuffer> strings = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String s = "line " + i + " " + "x".repeat(i % 1200);
+            // alternate heap and direct buffers, positioned inside a larger buffer
+            byte[] bytes = ("??" + s).getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer buffer = i % 2 == 0 ? ByteBuffer.wrap(bytes) : ByteBuffer.allocateDirect(bytes.length).put(bytes);
+            strings.add(buffer.position(2).limit(bytes.length));
+        }
+        return strings;
+    }
+
+    static byte[] sample(Sampler sampler) {
+        int[] line = new int[Sampler.CAPACITY], len = new int[Sampler.CAPACITY];
+        int n = sampler.lines(line, len);
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            assertTrue(len[i] > 0 && len[i] <= Symbol.FSST_SAMPLELINE);
+            assertEquals(size, line[i], "lines are compacted in order");
+            size += len[i];
+        }
+        return Arrays.copyOf(sampler.arena, size);
+    }
+
+    @Test
+    public void sampleIsBoundedAndReproducible() {
+        Sampler a = new Sampler(1), b = new Sampler(1), c = new Sampler(2);
+        a.addAll(strings(5000).iterator());
+        b.addAll(strings(5000).spliterator());
+        c.addAll(strings(5000).iterator());
+        byte[] sampleA = sample(a);
+        assertTrue(sampleA.length >= Symbol.FSST_SAMPLETARGET);
+        assertTrue(sampleA.length < Symbol.FSST_SAMPLETARGET + Symbol.FSST_SAMPLELINE);
+        assertArrayEquals(sampleA, sample(b));
+        assertFalse(Arrays.equals(sampleA, sample(c)));
+    }
+
+    @Test
+    public void smallInputIsKeptWhole() {
+        Sampler sampler = new Sampler(7);
+        StringBuilder expected = new StringBuilder();
+        for (ByteBuffer string : strings(30)) {
+            sampler.add(string);
+            for (int i = string.position(); i < string.limit(); i++)
+                expected.append((char) string.get(i));
+        }
+        assertEquals(expected.toString(), new String(sample(sampler), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void trainFromIterator() {
+        int n = 3000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        List<ByteBuffer> strings = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            strings.add(ByteBuffer.wrap(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]));
+
+        FSSTEncoder encoder = new FSSTEncoder(strings.iterator(), 42, 0);
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, encoder.fsst_compress(n, in, inOffsets, out, outOffsets));
+        assertTrue(outOffsets[n] < in.length / 2, "URLs compress at least 2x");
+    }
+}
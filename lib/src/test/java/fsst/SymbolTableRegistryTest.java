@@ -0,0 +1,120 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableRegistryTest {
+    static byte[] export(FSSTEncoder encoder) {
+        byte[] buf = new byte[FSSTEncoder.FSST_MAXHEADER];
+        return Arrays.copyOf(buf, encoder.export(buf, 0));
+    }
+
+    static FSSTEncoder encoder(String... symbols) {
+        SymbolTable symbolTable = new SymbolTable();
+        for (String symbol : symbols) {
+            byte[] bytes = symbol.getBytes(StandardCharsets.US_ASCII);
+            assertTrue(symbolTable.add(new Symbol(bytes, 0, bytes.length)));
+        }
+        symbolTable.finalize(0);
+        return new FSSTEncoder(symbolTable);
+    }
+
+    @Test
+    public void sharesIdenticalTables() {
+        SymbolTableRegistry registry = new SymbolTableRegistry(1 << 20);
+        byte[] header = export(new FSSTEncoder(FSSTEncoderTest.sampleTable()));
+        byte[] page = new byte[5 + header.length];
+        System.arraycopy(header, 0, page, 5, header.length);
+
+        SymbolTableRegistry.Entry entry = registry.get(header, 0);
+        assertSame(entry, registry.get(page, 5));
+        assertSame(entry, registry.get(ByteBuffer.allocateDirect(header.length).put(header).flip()));
+        assertEquals(1, registry.size());
+        assertEquals(FSSTEncoderTest.decoderFor(FSSTEncoderTest.sampleTable()).symbol[0], entry.decoder().symbol[0]);
+
+        long weight = registry.weight();
+        entry.table();
+        assertEquals(weight + entry.table().footprintBytes(), registry.weight());
+
+        assertNull(registry.get(new byte[FSSTEncoder.FSST_MAXHEADER], 0), "not a table of this version");
+        header[20]++; // another symbol
+        assertNotSame(entry, registry.get(header, 0));
+    }
+
+    @Test
+    public void sharedDecoderRefusesAnotherTable() {
+        byte[] a = export(encoder("aaa", "bb")), b = export(encoder("ccc", "dd"));
+        FSSTDecoder decoder = new SymbolTableRegistry(1 << 20).get(a, 0).decoder();
+        long[] symbols = decoder.symbol.clone();
+        assertThrows(IllegalStateException.class, () -> decoder.import_from_buffer(b, 0));
+        assertThrows(IllegalStateException.class, () -> decoder.import_from_buffer(ByteBuffer.wrap(b)));
+        assertArrayEquals(symbols, decoder.symbol, "still the shared table");
+
+        FSSTDecoder own = new FSSTDecoder(); // a decoder of one's own still imports
+        assertEquals(b.length, own.import_from_buffer(b, 0));
+    }
+
+    @Test
+    public void importedTableEncodesLikeTheOriginal() {
+        int n = 3000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        for (int zeroTerminated = 0; zeroTerminated <= 1; zeroTerminated++) {
+            FSSTEncoder encoder = new FSSTEncoder(n, in, inOffsets, zeroTerminated);
+            CompactSymbolTable expected = encoder.table;
+            CompactSymbolTable table = new SymbolTableRegistry(1 << 20).get(export(encoder), 0).table();
+            assertArrayEquals(expected.shortCodes, table.shortCodes);
+            assertArrayEquals(expected.hashValues, table.hashValues);
+            assertArrayEquals(expected.hashIcl, table.hashIcl);
+            assertArrayEquals(expected.symbolValues, table.symbolValues);
+            assertArrayEquals(expected.symbolLens, table.symbolLens);
+            assertArrayEquals(expected.lenHisto, table.lenHisto);
+            assertEquals(expected.byteLim, table.byteLim);
+            assertEquals(expected.suffixLim, table.suffixLim);
+            assertEquals(expected.terminator, table.terminator);
+            assertEquals(expected.zeroTerminated, table.zeroTerminated);
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        byte[] a = export(encoder("aaa", "bb")), b = export(encoder("ccc", "dd")), c = export(encoder("eee", "ff"));
+        SymbolTableRegistry.Entry entryA = new SymbolTableRegistry(1 << 20).get(a, 0);
+        SymbolTableRegistry registry = new SymbolTableRegistry(entryA.weight() * 5 / 2); // room for two
+
+        entryA = registry.get(a, 0);
+        SymbolTableRegistry.Entry entryB = registry.get(b, 0);
+        assertSame(entryA, registry.get(a, 0)); // b is now the least recently used
+        registry.get(c, 0);
+        assertEquals(2, registry.size());
+        assertSame(entryA, registry.get(a, 0));
+        assertNotSame(entryB, registry.get(b, 0));
+        assertTrue(registry.weight() <= entryA.weight() * 5 / 2);
+    }
+
+    @Test
+    public void hitsTakeTheTickOfTheLastMiss() {
+        byte[] a = export(encoder("aaa", "bb")), b = export(encoder("ccc", "dd")), c = export(encoder("eee", "ff"));
+        byte[] d = export(encoder("ggg", "hh"));
+        SymbolTableRegistry.Entry entryA = new SymbolTableRegistry(1 << 20).get(a, 0);
+        SymbolTableRegistry registry = new SymbolTableRegistry(entryA.weight() * 7 / 2); // room for three
+
+        entryA = registry.get(a, 0);
+        SymbolTableRegistry.Entry entryB = registry.get(b, 0);
+        SymbolTableRegistry.Entry entryC = registry.get(c, 0);
+        long tick = registry.tick.get();
+        assertSame(entryA, registry.get(a, 0)); // a now ranks after c, b is the least recently used
+        assertEquals(tick, registry.tick.get(), "a hit does not advance the tick");
+        assertEquals(tick, entryA.lastUsed);
+        registry.get(d, 0);
+        assertEquals(3, registry.size());
+        assertSame(entryA, registry.get(a, 0));
+        assertSame(entryC, registry.get(c, 0));
+        assertNotSame(entryB, registry.get(b, 0));
+    }
+}
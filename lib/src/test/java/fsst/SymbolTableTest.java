@@ -0,0 +1,83 @@
+package fsst;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SymbolTableTest {
+    static final String[] WORDS = { "http", "www", "com", "org", "user", "name", "data", "index", "json", "value",
+            "key", "email", "example", "search", "product" };
+
+    // URL-like lines, lineOffsets gets the n+1 line offsets
+    public static byte[] urls(int n, int[] lineOffsets) {
+        StringBuilder all = new StringBuilder();
+        long rnd = 42;
+        for (int i = 0; i < n; i++) {
+            all.append("https://www.");
+            for (int k = 0; k <= i % 5; k++) {
+                rnd = Symbol.FSST_HASH(rnd + i);
+                all.append(WORDS[(int) Long.remainderUnsigned(rnd, WORDS.length)]).append('/');
+            }
+            all.append("?id=").append(Long.remainderUnsigned(rnd, 100000));
+            lineOffsets[i + 1] = all.length();
+        }
+        return all.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // an encoder trained on the strings, for the tests of other packages
+    public static FSSTEncoder trained(byte[] in, int[] inOffsets, int n) {
+        return new FSSTEncoder(n, in, inOffsets, 0);
+    }
+
+    static SymbolTable train(ForkJoinPool pool, byte[] in, int[] inOffsets, int n) {
+        byte[] sample = new byte[(int) Symbol.FSST_SAMPLEMAXSZ];
+        int[] line = new int[(int) (n + Symbol.FSST_SAMPLEMAXSZ / Symbol.FSST_SAMPLELINE)];
+        int[] len = new int[line.length];
+        int nlines = FSSTEncoder.makeSample(sample, line, len, in, inOffsets, n);
+        if (pool == null)
+            return SymbolTable.buildSymbolTable(new Counters(), sample, line, len, nlines, 0);
+        return SymbolTable.buildSymbolTable(pool, sample, line, len, nlines, 0, 0);
+    }
+
+    @Test
+    public void trainedTableRoundTrips() {
+        int n = 3000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = urls(n, inOffsets);
+        SymbolTable symbolTable = train(ForkJoinPool.commonPool(), in, inOffsets, n);
+        assertTrue(symbolTable.nSymbols > 0 && symbolTable.nSymbols <= 255);
+
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, new FSSTEncoder(symbolTable).fsst_compress(n, in, inOffsets, out, outOffsets));
+        assertTrue(outOffsets[n] < in.length / 2, "URLs compress at least 2x");
+
+        byte[] decoded = new byte[in.length];
+        int[] decodedOffsets = new int[n + 1];
+        assertEquals(n, FSSTEncoderTest.decoderFor(symbolTable).decompressAll(n, outOffsets, out, decoded,
+                decodedOffsets));
+        assertArrayEquals(inOffsets, decodedOffsets);
+        assertArrayEquals(in, decoded);
+    }
+
+    @Test
+    public void parallelTrainingIsDeterministic() {
+        int n = 3000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = urls(n, inOffsets);
+        SymbolTable sequential = train(null, in, inOffsets, n);
+        for (int parallelism : new int[] { 1, 3, 8 }) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            SymbolTable parallel = train(pool, in, inOffsets, n);
+            pool.shutdown();
+            assertEquals(sequential.nSymbols, parallel.nSymbols);
+            for (int code = 0; code < sequential.nSymbols; code++) {
+                assertEquals(sequential.symbols[code].value, parallel.symbols[code].value);
+                assertEquals(sequential.symbols[code].icl, parallel.symbols[code].icl);
+            }
+        }
+    }
+}
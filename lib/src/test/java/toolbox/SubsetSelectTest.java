@@ -0,0 +1,101 @@
+package toolbox;
+
+import fsst.FSSTDecoder;
+import fsst.FSSTEncoder;
+import fsst.SymbolTableTest;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubsetSelectTest {
+
+    static int[] naiveSuffixArray(byte[] data, int n) {
+        Integer[] sa = new Integer[n];
+        for (int i = 0; i < n; i++)
+            sa[i] = i;
+        Arrays.sort(sa, (a, b) -> Arrays.compareUnsigned(data, a, n, data, b, n));
+        return Arrays.stream(sa).mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void suffixArray() {
+        Random random = new Random(42);
+        for (int alphabet : new int[] { 1, 2, 3, 256 }) {
+            for (int n : new int[] { 0, 1, 2, 7, 100, 5000 }) {
+                byte[] data = new byte[n];
+                for (int i = 0; i < n; i++)
+                    data[i] = (byte) (alphabet == 256 ? random.nextInt(256) : 'a' + random.nextInt(alphabet));
+                assertArrayEquals(naiveSuffixArray(data, n), SuffixArray.build(data, n), alphabet + "/" + n);
+            }
+        }
+        byte[] text = "mississippi\0banana\0bananas\0".getBytes(StandardCharsets.US_ASCII);
+        int[] suffixArray = SuffixArray.build(text, text.length);
+        assertArrayEquals(naiveSuffixArray(text, text.length), suffixArray);
+        int[] lcp = ToolboxUtils.computeLCP(text, suffixArray);
+        for (int i = 1; i < text.length; i++) {
+            int a = suffixArray[i - 1], b = suffixArray[i], common = 0;
+            while (text[a + common] == text[b + common] && text[a + common] != 0)
+                common++;
+            assertEquals(common, lcp[i]);
+        }
+    }
+
+    @Test
+    public void selectsAndCompresses() {
+        SubsetSelect select = new SubsetSelect();
+        String[] strings = new String[2000];
+        Random random = new Random(7);
+        String[] words = { "https://", "www.", "example", ".com/", "index.html", "search?q=", "user", "id=" };
+        for (int i = 0; i < strings.length; i++) {
+            StringBuilder string = new StringBuilder();
+            for (int w = 0; w < 4; w++)
+                string.append(words[random.nextInt(words.length)]).append(random.nextInt(100));
+            strings[i] = string.toString();
+            select.add(strings[i]);
+        }
+        long[] symbols = select.select();
+        assertTrue(symbols.length > 100 && symbols.length <= 255, symbols.length + " symbols");
+        assertEquals(symbols.length, Arrays.stream(symbols).distinct().count());
+        assertTrue(Arrays.stream(symbols).anyMatch(s -> ToolboxUtils.getSymbolLength(s) == 8));
+        long longSymbols = Arrays.stream(symbols).filter(s -> ToolboxUtils.getSymbolLength(s) > 2).count();
+        assertEquals(longSymbols, Arrays.stream(symbols).filter(s -> ToolboxUtils.getSymbolLength(s) > 2)
+                .map(FSSTEncoder::hashSlot).distinct().count());
+
+        FSSTEncoder encoder = select.buildEncoder();
+        byte[] in = String.join("", strings).getBytes(StandardCharsets.US_ASCII);
+        int[] inOffsets = new int[strings.length + 1];
+        for (int i = 0; i < strings.length; i++)
+            inOffsets[i + 1] = inOffsets[i] + strings[i].length();
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[strings.length + 1];
+        assertEquals(strings.length, encoder.fsst_compress(strings.length, in, inOffsets, out, outOffsets));
+        assertTrue(outOffsets[strings.length] < in.length / 2, "compressed to " + outOffsets[strings.length]);
+
+        FSSTDecoder decoder = encoder.decoder();
+        byte[] decoded = new byte[in.length + 32];
+        int[] decodedOffsets = new int[strings.length + 1];
+        assertEquals(strings.length, decoder.decompressAll(strings.length, outOffsets, out, decoded, decodedOffsets));
+        assertArrayEquals(in, Arrays.copyOf(decoded, in.length));
+    }
+
+    @Test
+    public void selectionCompressesAtLeastAsWellAsTraining() {
+        int n = 3000;
+        int[] inOffsets = new int[n + 1];
+        byte[] in = SymbolTableTest.urls(n, inOffsets);
+        SubsetSelect select = new SubsetSelect();
+        for (int i = 0; i < n; i++)
+            select.add(in, inOffsets[i], inOffsets[i + 1] - inOffsets[i]);
+
+        byte[] out = new byte[7 + 2 * in.length];
+        int[] outOffsets = new int[n + 1];
+        assertEquals(n, SymbolTableTest.trained(in, inOffsets, n).fsst_compress(n, in, inOffsets, out, outOffsets));
+        int trained = outOffsets[n];
+        assertEquals(n, select.buildEncoder().fsst_compress(n, in, inOffsets, out, outOffsets));
+        assertTrue(outOffsets[n] <= trained, outOffsets[n] + " bytes, trained " + trained);
+    }
+}
@@ -12,3 +12,4 @@ plugins {
 
 rootProject.name = "fsst"
 include("lib")
+include("jmh")